@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.Signature;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static com.squareup.sdk.pos.TestData.POINT_OF_SALE_SIGNATURE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/** Measures creating charge intents with Point of Sale installed in a fake PackageManager. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChargeIntentBenchmark {
+
+  private PointOfSaleResolver resolver;
+  private RealPosClient client;
+  private ChargeRequest request;
+  private ChargeTemplate template;
+
+  @Setup public void setUp() throws Exception {
+    ResolveInfo resolveInfo = new ResolveInfo();
+    resolveInfo.activityInfo = new ActivityInfo();
+    resolveInfo.activityInfo.packageName = "com.squareup";
+    resolveInfo.activityInfo.name = "com.squareup.ChargeActivity";
+    PackageInfo packageInfo = new PackageInfo();
+    packageInfo.packageName = "com.squareup";
+    packageInfo.versionCode = 2;
+    packageInfo.signatures = new Signature[] { POINT_OF_SALE_SIGNATURE };
+
+    // Stub only mocks don't record invocations, which would pile up over millions of calls.
+    PackageManager packageManager = mock(PackageManager.class, withSettings().stubOnly());
+    when(packageManager.queryIntentActivities(any(Intent.class), anyInt()))
+        .thenReturn(Collections.singletonList(resolveInfo));
+    when(packageManager.getPackageInfo(eq("com.squareup"), anyInt())).thenReturn(packageInfo);
+    Context context = mock(Context.class, withSettings().stubOnly());
+    when(context.getPackageManager()).thenReturn(packageManager);
+
+    // The mocked PackageManager only answers with PackageInfo signatures.
+    resolver = new PointOfSaleResolver(context, new LegacySignatureVerifier());
+    client = new RealPosClient(context, "CLIENT_ID", resolver);
+    request = new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .autoReturn(4, SECONDS)
+        .enforceBusinessLocation("location")
+        .requestMetadata("metadata")
+        .note("note")
+        .build();
+    template = new ChargeTemplate(request);
+  }
+
+  @Benchmark public Intent createChargeIntent() {
+    return client.createChargeIntent(request);
+  }
+
+  @Benchmark public Intent createChargeIntentFromTemplate() {
+    return client.createChargeIntent(template, 2_00, "metadata");
+  }
+
+  /** Resolving again after a package broadcast, with an unchanged Point of Sale package. */
+  @Benchmark public Intent createChargeIntentAfterPackageChange() {
+    resolver.invalidate();
+    return client.createChargeIntent(request);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static com.squareup.sdk.pos.ChargeRequest.TenderType.CARD;
+import static com.squareup.sdk.pos.ChargeRequest.TenderType.CASH;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChargeRequestBenchmark {
+
+  private ChargeRequest.Builder builder;
+  private ChargeRequest request;
+  private ChargeRequest equalRequest;
+
+  @Setup public void setUp() {
+    builder = newBuilder(1_00);
+    request = builder.build();
+    equalRequest = builder.build();
+  }
+
+  @Benchmark public ChargeRequest build() {
+    return builder.build();
+  }
+
+  @Benchmark public ChargeRequest buildNewRequest() {
+    return newBuilder(1_00).build();
+  }
+
+  @Benchmark public ChargeRequest copyWithNewAmount() {
+    return request.newBuilder(2_00, CurrencyCode.USD).build();
+  }
+
+  @Benchmark public boolean equalsEqualRequest() {
+    return request.equals(equalRequest);
+  }
+
+  @Benchmark public int hashCodeOfRequest() {
+    return request.hashCode();
+  }
+
+  private static ChargeRequest.Builder newBuilder(int totalAmount) {
+    return new ChargeRequest.Builder(totalAmount, CurrencyCode.USD)
+        .restrictTendersTo(CARD, CASH)
+        .autoReturn(4, SECONDS)
+        .enforceBusinessLocation("location")
+        .customerId("customerId")
+        .requestMetadata("metadata")
+        .note("note");
+  }
+}
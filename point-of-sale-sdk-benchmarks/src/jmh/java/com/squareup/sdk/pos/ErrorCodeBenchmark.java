@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ErrorCodeBenchmark {
+
+  @Param({
+      PosApi.ERROR_TRANSACTION_CANCELED, PosApi.ERROR_UNSUPPORTED_API_VERSION,
+      "com.squareup.pos.ERROR_SOMETHING_NEW"
+  })
+  public String apiErrorCode;
+
+  private String code;
+
+  @Setup public void setUp() {
+    // Codes read from a result Intent are not interned constants.
+    code = new String(apiErrorCode.toCharArray());
+  }
+
+  @Benchmark public ChargeRequest.ErrorCode parse() {
+    return ChargeRequest.ErrorCode.parse(code);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.Signature;
+import android.content.pm.SigningInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static android.content.pm.PackageManager.GET_SIGNING_CERTIFICATES;
+import static com.squareup.sdk.pos.TestData.INVALID_SIGNATURE;
+import static com.squareup.sdk.pos.TestData.POINT_OF_SALE_SIGNATURE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures how resolving Point of Sale scales with the number of installed apps that answer charge
+ * intents. One in ten apps has a {@code com.squareup} prefix: half of those are wrongly signed,
+ * the other half are also signed by a second, unknown signer. One of them is Point of Sale.
+ *
+ * <p>Both verifiers are measured. {@link SigningCertificateVerifier}, which is used on P and
+ * later, fetches the signing certificates of every candidate that
+ * {@link PackageManager#hasSigningCertificate} doesn't match, so wrongly signed and multi-signer
+ * candidates cost it a second {@code getPackageInfo()} call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResolutionScalingBenchmark {
+
+  @Param({ "10", "100", "1000", "5000" })
+  public int packageCount;
+
+  @Param({ "legacy", "signingCertificate" })
+  public String verifier;
+
+  private Context context;
+  private PointOfSaleResolver resolver;
+
+  @Setup public void setUp() throws Exception {
+    List<ResolveInfo> chargeActivities = new ArrayList<>();
+    final Map<String, PackageInfo> packages = new HashMap<>();
+    final Map<String, PackageInfo> signingCertificates = new HashMap<>();
+    final Set<String> singlePointOfSaleSigner = new HashSet<>();
+    for (int i = 0; i < packageCount; i++) {
+      String packageName;
+      Signature[] signatures;
+      if (i == packageCount / 2) {
+        packageName = "com.squareup";
+        signatures = new Signature[] { POINT_OF_SALE_SIGNATURE };
+      } else if (i % 20 == 1) {
+        packageName = "com.squareup.sideloaded" + i;
+        signatures = new Signature[] { INVALID_SIGNATURE };
+      } else if (i % 20 == 11) {
+        packageName = "com.squareup.multisigner" + i;
+        signatures = new Signature[] { POINT_OF_SALE_SIGNATURE, INVALID_SIGNATURE };
+      } else {
+        packageName = "com.example.app" + i;
+        signatures = new Signature[] { INVALID_SIGNATURE };
+      }
+      ResolveInfo resolveInfo = new ResolveInfo();
+      resolveInfo.activityInfo = new ActivityInfo();
+      resolveInfo.activityInfo.packageName = packageName;
+      resolveInfo.activityInfo.name = packageName + ".ChargeActivity";
+      chargeActivities.add(resolveInfo);
+      PackageInfo packageInfo = new PackageInfo();
+      packageInfo.packageName = packageName;
+      packageInfo.versionCode = 2;
+      packageInfo.signatures = signatures;
+      packages.put(packageName, packageInfo);
+      signingCertificates.put(packageName, signingCertificatesOf(packageName, signatures));
+      if (signatures.length == 1 && signatures[0] == POINT_OF_SALE_SIGNATURE) {
+        singlePointOfSaleSigner.add(packageName);
+      }
+    }
+
+    // Stub only mocks don't record invocations, which would pile up over millions of calls.
+    PackageManager packageManager = mock(PackageManager.class, withSettings().stubOnly());
+    when(packageManager.queryIntentActivities(any(Intent.class), anyInt()))
+        .thenReturn(chargeActivities);
+    when(packageManager.getPackageInfo(anyString(), anyInt()))
+        .thenAnswer(invocation -> packages.get(invocation.<String>getArgument(0)));
+    when(packageManager.getPackageInfo(anyString(), eq(GET_SIGNING_CERTIFICATES)))
+        .thenAnswer(invocation -> signingCertificates.get(invocation.<String>getArgument(0)));
+    // The platform matches the pinned certificate of packages with a single signer.
+    when(packageManager.hasSigningCertificate(anyString(), any(byte[].class), anyInt()))
+        .thenAnswer(invocation -> singlePointOfSaleSigner.contains(invocation.getArgument(0)));
+    context = mock(Context.class, withSettings().stubOnly());
+    when(context.getPackageManager()).thenReturn(packageManager);
+    resolver = newResolver();
+    resolver.resolve();
+  }
+
+  /** The steady state: the resolved package is cached until a package changes. */
+  @Benchmark public ResolvedPointOfSale resolveCached() {
+    return resolver.resolve();
+  }
+
+  /** After a package broadcast: every candidate is queried again, verifications are cached. */
+  @Benchmark public ResolvedPointOfSale resolveAfterPackageChange() {
+    resolver.invalidate();
+    return resolver.resolve();
+  }
+
+  /** The first resolution of the process, which verifies every candidate. */
+  @Benchmark public ResolvedPointOfSale resolveCold() {
+    return newResolver().resolve();
+  }
+
+  private PointOfSaleResolver newResolver() {
+    SignatureVerifier signatureVerifier = verifier.equals("legacy")
+        ? new LegacySignatureVerifier()
+        : new SigningCertificateVerifier(context.getPackageManager());
+    return new PointOfSaleResolver(context, signatureVerifier);
+  }
+
+  private static PackageInfo signingCertificatesOf(String packageName, Signature[] signatures) {
+    SigningInfo signingInfo = mock(SigningInfo.class, withSettings().stubOnly());
+    when(signingInfo.hasMultipleSigners()).thenReturn(signatures.length > 1);
+    when(signingInfo.getApkContentsSigners()).thenReturn(signatures);
+    when(signingInfo.getSigningCertificateHistory()).thenReturn(signatures);
+    PackageInfo packageInfo = new PackageInfo();
+    packageInfo.packageName = packageName;
+    packageInfo.signingInfo = signingInfo;
+    return packageInfo;
+  }
+}
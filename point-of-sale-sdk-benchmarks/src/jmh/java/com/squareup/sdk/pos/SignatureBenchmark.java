@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.Signature;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static com.squareup.sdk.pos.TestData.INVALID_SIGNATURE;
+import static com.squareup.sdk.pos.TestData.POINT_OF_SALE_SIGNATURE;
+
+/**
+ * Measures the certificate checks run when resolving Point of Sale. {@link
+ * SigningCertificateVerifier} is not covered: its checks happen inside the platform
+ * PackageManager.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SignatureBenchmark {
+
+  private final LegacySignatureVerifier verifier = new LegacySignatureVerifier();
+  private PackageInfo pointOfSale;
+  private PackageInfo invalid;
+  private byte[] certificate;
+  private byte[] fingerprint;
+
+  @Setup public void setUp() throws Exception {
+    pointOfSale = packageInfo(POINT_OF_SALE_SIGNATURE);
+    invalid = packageInfo(INVALID_SIGNATURE);
+    certificate = POINT_OF_SALE_SIGNATURE.toByteArray();
+    fingerprint = MessageDigest.getInstance("SHA1").digest(certificate);
+  }
+
+  @Benchmark public String bytesToHexString() {
+    return PosSdkHelper.bytesToHexString(fingerprint);
+  }
+
+  @Benchmark public boolean matchFingerprint() {
+    return SignatureVerifier.POINT_OF_SALE_FINGERPRINTS.matches(certificate);
+  }
+
+  @Benchmark public boolean verifyPointOfSale() {
+    return verifier.isSignedByPointOfSale(pointOfSale);
+  }
+
+  @Benchmark public boolean verifyInvalidSignature() {
+    return verifier.isSignedByPointOfSale(invalid);
+  }
+
+  private static PackageInfo packageInfo(Signature signature) {
+    PackageInfo packageInfo = new PackageInfo();
+    packageInfo.packageName = "com.squareup";
+    packageInfo.signatures = new Signature[] { signature };
+    return packageInfo;
+  }
+}
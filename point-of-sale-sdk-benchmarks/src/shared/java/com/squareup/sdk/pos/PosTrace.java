@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+/**
+ * Stands in for the SDK's PosTrace, which the build excludes because the framework's
+ * {@code android.os.Trace} and {@code android.os.Build} only work on a device. Tracing is off, as
+ * on a device that isn't being traced, so trace sections cost nothing here: their cost on a
+ * device is not measured by this module.
+ */
+final class PosTrace {
+
+  static final String QUERY = "PosSdk:query";
+  static final String GET_PACKAGE_INFO = "PosSdk:getPackageInfo";
+  static final String VERIFY = "PosSdk:verify";
+  static final String CREATE_CHARGE_INTENT = "PosSdk:createChargeIntent";
+  static final String PARSE_CHARGE_RESULT = "PosSdk:parseChargeResult";
+  static final String CHARGE = "PosSdk:charge";
+
+  static void beginSection(String sectionName) {
+  }
+
+  static void beginSection(String sectionName, String detail) {
+  }
+
+  static void endSection() {
+  }
+
+  static int beginAsyncSection(String sectionName) {
+    return 0;
+  }
+
+  static void endAsyncSection(String sectionName, int cookie) {
+  }
+
+  private PosTrace() {
+    throw new AssertionError();
+  }
+}
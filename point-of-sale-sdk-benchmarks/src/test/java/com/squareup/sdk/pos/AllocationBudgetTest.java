@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.Signature;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.squareup.sdk.pos.TestData.POINT_OF_SALE_SIGNATURE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fails when the steady state charge path allocates more than its budget. This runs on the JVM
+ * rather than with Robolectric, whose shadows allocate on their own, and counts the bytes that
+ * the current thread allocates once the client is warmed up.
+ *
+ * <p>A charge intent has to allocate the intent, its bundle and the bundle's arrays. Parsing a
+ * result only allocates the result. Rejecting invalid input with a lenient builder allocates at
+ * most the builder.
+ */
+public class AllocationBudgetTest {
+
+  private static final long CHARGE_INTENT_BUDGET_BYTES = 1024;
+  private static final long RESULT_BUDGET_BYTES = 64;
+  private static final long VALIDATION_BUDGET_BYTES = 64;
+
+  private static final int WARMUP_ITERATIONS = 20_000;
+  private static final int MEASURED_ITERATIONS = 10_000;
+
+  private final com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private RealPosClient client;
+  private ChargeRequest request;
+  private ChargeTemplate template;
+  private Intent successData;
+  private Intent errorData;
+  /** Keeps the JIT from eliminating the allocations that are measured. */
+  private volatile Object sink;
+
+  @Before public void setUp() throws Exception {
+    ResolveInfo resolveInfo = new ResolveInfo();
+    resolveInfo.activityInfo = new ActivityInfo();
+    resolveInfo.activityInfo.packageName = "com.squareup";
+    resolveInfo.activityInfo.name = "com.squareup.ChargeActivity";
+    PackageInfo packageInfo = new PackageInfo();
+    packageInfo.packageName = "com.squareup";
+    packageInfo.versionCode = 2;
+    packageInfo.signatures = new Signature[] { POINT_OF_SALE_SIGNATURE };
+
+    PackageManager packageManager = mock(PackageManager.class);
+    when(packageManager.queryIntentActivities(any(Intent.class), anyInt()))
+        .thenReturn(Collections.singletonList(resolveInfo));
+    when(packageManager.getPackageInfo(eq("com.squareup"), anyInt())).thenReturn(packageInfo);
+    Context context = mock(Context.class);
+    when(context.getPackageManager()).thenReturn(packageManager);
+
+    // The mocked PackageManager only answers with PackageInfo signatures.
+    PointOfSaleResolver resolver = new PointOfSaleResolver(context, new LegacySignatureVerifier());
+    client = new RealPosClient(context, "CLIENT_ID", resolver);
+    request = new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .autoReturn(4, SECONDS)
+        .enforceBusinessLocation("location")
+        .requestMetadata("metadata")
+        .note("note")
+        .build();
+    template = new ChargeTemplate(request);
+
+    successData = new Intent();
+    successData.putExtra(PosApi.RESULT_CLIENT_TRANSACTION_ID, "client");
+    successData.putExtra(PosApi.RESULT_SERVER_TRANSACTION_ID, "server");
+    successData.putExtra(PosApi.RESULT_REQUEST_METADATA, "metadata");
+    errorData = new Intent();
+    errorData.putExtra(PosApi.RESULT_ERROR_CODE, PosApi.ERROR_TRANSACTION_CANCELED);
+    errorData.putExtra(PosApi.RESULT_ERROR_DESCRIPTION, "canceled");
+    errorData.putExtra(PosApi.RESULT_REQUEST_METADATA, "metadata");
+  }
+
+  @Test public void createChargeIntent() {
+    assertThat(bytesPerCall(() -> sink = client.createChargeIntent(request)))
+        .isLessThanOrEqualTo(CHARGE_INTENT_BUDGET_BYTES);
+  }
+
+  @Test public void createChargeIntentFromTemplate() {
+    assertThat(bytesPerCall(() -> sink = client.createChargeIntent(template, 2_00, "metadata")))
+        .isLessThanOrEqualTo(CHARGE_INTENT_BUDGET_BYTES);
+  }
+
+  @Test public void parseChargeSuccess() {
+    assertThat(bytesPerCall(() -> sink = client.parseChargeSuccess(successData)))
+        .isLessThanOrEqualTo(RESULT_BUDGET_BYTES);
+  }
+
+  @Test public void parseChargeError() {
+    assertThat(bytesPerCall(() -> sink = client.parseChargeError(errorData)))
+        .isLessThanOrEqualTo(RESULT_BUDGET_BYTES);
+  }
+
+  @Test public void rejectInvalidRequest() {
+    String longNote = new String(new char[PosApi.NOTE_MAX_LENGTH + 1]);
+    assertThat(bytesPerCall(() -> sink = ChargeRequest.Builder.lenient(-1, CurrencyCode.USD)
+        .note(longNote)
+        .tryBuild())).isLessThanOrEqualTo(VALIDATION_BUDGET_BYTES);
+  }
+
+  private long bytesPerCall(Runnable operation) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      operation.run();
+    }
+    long threadId = Thread.currentThread().getId();
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      operation.run();
+    }
+    long after = threadBean.getThreadAllocatedBytes(threadId);
+    return (after - before) / MEASURED_ITERATIONS;
+  }
+}
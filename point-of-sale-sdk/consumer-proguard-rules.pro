@@ -0,0 +1,3 @@
+# ChargeLauncher is compiled against AndroidX Activity, which apps that don't use it may not have.
+-dontwarn androidx.activity.**
+-dontwarn androidx.lifecycle.**
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Fails charges fast while Square Point of Sale is in a state that a charge can't fix. When Point
+ * of Sale is logged out, disabled, not activated or out of date, every charge switches to Point of
+ * Sale only to come back with an {@link ChargeRequest.ErrorCategory#UNAVAILABLE} error, such as
+ * {@link ChargeRequest.ErrorCode#USER_NOT_LOGGED_IN}. After the same one of these errors is
+ * returned for consecutive charges, the breaker opens, and {@link PosClient#createChargeIntent}
+ * throws a {@link ChargeRejectedException} with that error instead of creating an intent.
+ *
+ * <pre class="code"><code class="java">
+ * PosClient posClient = new PosSdk.Builder(context, CLIENT_ID)
+ *     .addInterceptor(new ChargeCircuitBreaker(context, 2, 30, TimeUnit.SECONDS))
+ *     .build();
+ * </code></pre>
+ *
+ * <p>Once the backoff elapsed, one charge goes through to probe Point of Sale: the breaker closes
+ * if it returns anything but the same error, and opens for another backoff otherwise. The breaker
+ * also closes right away when a Point of Sale package is added, replaced or removed, and when
+ * {@link #reset()} is called, for instance after the merchant was asked to log in.
+ */
+public final class ChargeCircuitBreaker implements PosInterceptor {
+
+  private final int failureThreshold;
+  private final long backoffMillis;
+  /** Consecutive errors per {@link ChargeRequest.ErrorCode#ordinal()}. Guarded by this. */
+  private final int[] consecutiveErrors = new int[ChargeRequest.ErrorCode.values().length];
+  /** The error charges are rejected with, or null while closed. Guarded by this. */
+  @Nullable private ChargeRequest.Error openError;
+  /** When the breaker opened, or when the last probe started. Guarded by this. */
+  private long openedAtMillis;
+  /** Referenced here because the resolver only holds it weakly. */
+  private final PointOfSaleResolver.PackageChangeListener packageChangeListener =
+      new PointOfSaleResolver.PackageChangeListener() {
+        @Override public void onPointOfSaleChanged() {
+          reset();
+        }
+      };
+
+  /**
+   * @param failureThreshold how many consecutive charges must fail with the same persistent error
+   * for the breaker to open.
+   * @param backoff how long the breaker stays open before a charge probes Point of Sale again.
+   * @throws NullPointerException if context or backoffUnit is null.
+   * @throws IllegalArgumentException if failureThreshold is not positive or backoff is negative.
+   */
+  public ChargeCircuitBreaker(@NonNull Context context, int failureThreshold, long backoff,
+      @NonNull TimeUnit backoffUnit) {
+    nonNull(context, "context");
+    nonNull(backoffUnit, "backoffUnit");
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("failureThreshold must be positive");
+    }
+    if (backoff < 0) {
+      throw new IllegalArgumentException("backoff must not be negative");
+    }
+    this.failureThreshold = failureThreshold;
+    backoffMillis = backoffUnit.toMillis(backoff);
+    // Listens through the receiver of the shared resolver, so that breakers don't register
+    // receivers that would keep them alive for as long as the application.
+    PointOfSaleResolver.shared(context.getApplicationContext())
+        .addPackageChangeListener(packageChangeListener);
+  }
+
+  /**
+   * @throws ChargeRejectedException if the breaker is open. The error has the code and the
+   * description of the error that opened it, and the metadata of the rejected request.
+   */
+  @NonNull @Override public Intent interceptChargeIntent(@NonNull ChargeIntentChain chain) {
+    ChargeRequest.Error rejection = rejection();
+    if (rejection != null) {
+      ChargeRequest chargeRequest = chain.chargeRequest();
+      FlightRecorder.shared.record(FlightRecorder.Event.CHARGE_REJECTED, rejection.code, 0);
+      throw new ChargeRejectedException(new ChargeRequest.Error(rejection.code,
+          rejection.debugDescription, chargeRequest.requestMetadata));
+    }
+    return chain.proceed(chain.chargeRequest());
+  }
+
+  @NonNull @Override public ChargeRequest.Success interceptChargeSuccess(
+      @NonNull ResultChain<ChargeRequest.Success> chain) {
+    ChargeRequest.Success success = chain.proceed(chain.data());
+    reset();
+    return success;
+  }
+
+  @NonNull @Override public ChargeRequest.Error interceptChargeError(
+      @NonNull ResultChain<ChargeRequest.Error> chain) {
+    ChargeRequest.Error error = chain.proceed(chain.data());
+    onError(error);
+    return error;
+  }
+
+  /** @return {@code true} if charges are rejected until the backoff elapses. */
+  public synchronized boolean isOpen() {
+    return openError != null;
+  }
+
+  /** Closes the breaker and forgets the errors counted so far. */
+  public synchronized void reset() {
+    openError = null;
+    for (int i = 0; i < consecutiveErrors.length; i++) {
+      consecutiveErrors[i] = 0;
+    }
+  }
+
+  /** @return the error to reject a charge with, or {@code null} to let it through. */
+  @Nullable private synchronized ChargeRequest.Error rejection() {
+    if (openError == null) {
+      return null;
+    }
+    long nowMillis = SystemClock.elapsedRealtime();
+    if (nowMillis - openedAtMillis < backoffMillis) {
+      return openError;
+    }
+    // Let this charge probe Point of Sale, and reject the other ones until its result is parsed
+    // or the backoff elapses again.
+    openedAtMillis = nowMillis;
+    return null;
+  }
+
+  private synchronized void onError(ChargeRequest.Error error) {
+    // The code is null when Point of Sale returned one this SDK doesn't know.
+    if (error.code == null || error.code.category != ChargeRequest.ErrorCategory.UNAVAILABLE) {
+      reset();
+      return;
+    }
+    int ordinal = error.code.ordinal();
+    int count = consecutiveErrors[ordinal] + 1;
+    reset();
+    consecutiveErrors[ordinal] = count;
+    if (count >= failureThreshold) {
+      openError = error;
+      openedAtMillis = SystemClock.elapsedRealtime();
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Creates charge intents with a {@link PosClient} and hands each result back with the {@link
+ * ChargeRequest} that started its charge, so that apps don't need their own map from request
+ * metadata to order.
+ *
+ * <pre class="code"><code class="java">
+ * chargeCorrelator = new ChargeCorrelator(posClient, 100, 1, TimeUnit.HOURS);
+ * Intent chargeIntent = chargeCorrelator.createChargeIntent(request);
+ * activity.startActivityForResult(chargeIntent, CHARGE_REQUEST_CODE);
+ *
+ * // In onActivityResult():
+ * ChargeCorrelator.Correlated&lt;ChargeRequest.Success&gt; success =
+ *     chargeCorrelator.parseChargeSuccess(data);
+ * onTransactionSuccess(success.chargeRequest, success.result);
+ * </code></pre>
+ *
+ * <p>A correlation token is stamped in front of the request metadata sent to Square Point of Sale,
+ * and removed from the parsed result, so results carry the request metadata of the app. Requests
+ * are held until their result is parsed, up to a maximum number of requests and a maximum age,
+ * the oldest being dropped first, so that charges that never return don't pile up.
+ */
+public final class ChargeCorrelator {
+
+  /** A parsed result, with the request of its charge. */
+  public static final class Correlated<T> {
+    /**
+     * The request of the charge, or null if it is unknown: the charge wasn't created by this
+     * correlator, it was dropped for being too old, or Square Point of Sale returned no request
+     * metadata.
+     */
+    @Nullable public final ChargeRequest chargeRequest;
+    /** The parsed result, with the request metadata of the request. */
+    @NonNull public final T result;
+
+    Correlated(@Nullable ChargeRequest chargeRequest, @NonNull T result) {
+      this.chargeRequest = chargeRequest;
+      this.result = result;
+    }
+  }
+
+  private static final String TOKEN_PREFIX = "pos-sdk:";
+  private static final char TOKEN_END = '|';
+
+  private final PosClient posClient;
+  private final int maxSize;
+  private final long maxAgeMillis;
+  /** Distinguishes the tokens of this correlator from the ones of a previous process. */
+  private final String tokenNonce;
+  /** Pending requests by token, oldest first. Guarded by this. */
+  private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+  private long nextToken;
+
+  /**
+   * @param maxSize the maximum number of requests to hold.
+   * @param maxAge how long to hold a request waiting for its result.
+   * @throws NullPointerException if posClient or maxAgeUnit is null.
+   * @throws IllegalArgumentException if maxSize or maxAge isn't positive.
+   */
+  public ChargeCorrelator(@NonNull PosClient posClient, int maxSize, long maxAge,
+      @NonNull TimeUnit maxAgeUnit) {
+    this.posClient = nonNull(posClient, "posClient");
+    nonNull(maxAgeUnit, "maxAgeUnit");
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    if (maxAge <= 0) {
+      throw new IllegalArgumentException("maxAge must be positive");
+    }
+    this.maxSize = maxSize;
+    maxAgeMillis = maxAgeUnit.toMillis(maxAge);
+    tokenNonce = Long.toString(new Random().nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+  }
+
+  /**
+   * Creates a charge intent with {@link PosClient#createChargeIntent(ChargeRequest)}, and holds
+   * the request until its result is parsed.
+   */
+  @NonNull public Intent createChargeIntent(@NonNull ChargeRequest chargeRequest) {
+    nonNull(chargeRequest, "chargeRequest");
+    String token = nextToken();
+    Intent intent = posClient.createChargeIntent(chargeRequest.withAmountAndMetadata(
+        chargeRequest.totalAmount, stamp(token, chargeRequest.requestMetadata)));
+    hold(token, new Pending(chargeRequest, chargeRequest.totalAmount,
+        chargeRequest.requestMetadata));
+    return intent;
+  }
+
+  /**
+   * Creates a charge intent with {@link PosClient#createChargeIntent(ChargeTemplate, int,
+   * String)}, and holds the request until its result is parsed.
+   */
+  @NonNull public Intent createChargeIntent(@NonNull ChargeTemplate chargeTemplate,
+      int totalAmount, @Nullable String requestMetadata) {
+    nonNull(chargeTemplate, "chargeTemplate");
+    String token = nextToken();
+    Intent intent = posClient.createChargeIntent(chargeTemplate, totalAmount,
+        stamp(token, requestMetadata));
+    hold(token, new Pending(chargeTemplate.chargeRequest, totalAmount, requestMetadata));
+    return intent;
+  }
+
+  /** Parses a successful result, and takes back the request of its charge. */
+  @NonNull public Correlated<ChargeRequest.Success> parseChargeSuccess(@NonNull Intent data) {
+    ChargeRequest.Success success = posClient.parseChargeSuccess(data);
+    String requestMetadata = success.requestMetadata;
+    String token = tokenOf(requestMetadata);
+    if (token == null) {
+      return new Correlated<>(null, success);
+    }
+    return new Correlated<>(take(token),
+        new ChargeRequest.Success(success.clientTransactionId, success.serverTransactionId,
+            unstamp(requestMetadata)));
+  }
+
+  /** Parses a failed result, and takes back the request of its charge. */
+  @NonNull public Correlated<ChargeRequest.Error> parseChargeError(@NonNull Intent data) {
+    ChargeRequest.Error error = posClient.parseChargeError(data);
+    String requestMetadata = error.requestMetadata;
+    String token = tokenOf(requestMetadata);
+    if (token == null) {
+      return new Correlated<>(null, error);
+    }
+    return new Correlated<>(take(token),
+        new ChargeRequest.Error(error.code, error.debugDescription, unstamp(requestMetadata)));
+  }
+
+  /** @return the number of requests waiting for their result. */
+  public synchronized int pendingCount() {
+    evictExpired(SystemClock.elapsedRealtime());
+    return pending.size();
+  }
+
+  private synchronized String nextToken() {
+    return tokenNonce + '.' + Long.toString(nextToken++, Character.MAX_RADIX);
+  }
+
+  private synchronized void hold(String token, Pending request) {
+    evictExpired(request.heldAtMillis);
+    pending.put(token, request);
+    if (pending.size() > maxSize) {
+      Iterator<Map.Entry<String, Pending>> iterator = pending.entrySet().iterator();
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  @Nullable private synchronized ChargeRequest take(String token) {
+    evictExpired(SystemClock.elapsedRealtime());
+    Pending request = pending.remove(token);
+    return request != null ? request.toChargeRequest() : null;
+  }
+
+  private void evictExpired(long nowMillis) {
+    Iterator<Pending> iterator = pending.values().iterator();
+    while (iterator.hasNext() && nowMillis - iterator.next().heldAtMillis > maxAgeMillis) {
+      iterator.remove();
+    }
+  }
+
+  static String stamp(String token, @Nullable String requestMetadata) {
+    if (requestMetadata == null) {
+      return TOKEN_PREFIX + token;
+    }
+    return TOKEN_PREFIX + token + TOKEN_END + requestMetadata;
+  }
+
+  @Nullable static String tokenOf(@Nullable String requestMetadata) {
+    if (requestMetadata == null || !requestMetadata.startsWith(TOKEN_PREFIX)) {
+      return null;
+    }
+    int end = requestMetadata.indexOf(TOKEN_END, TOKEN_PREFIX.length());
+    return requestMetadata.substring(TOKEN_PREFIX.length(),
+        end != -1 ? end : requestMetadata.length());
+  }
+
+  /** @return the request metadata of the app, from stamped request metadata. */
+  @Nullable static String unstamp(String requestMetadata) {
+    int end = requestMetadata.indexOf(TOKEN_END, TOKEN_PREFIX.length());
+    return end != -1 ? requestMetadata.substring(end + 1) : null;
+  }
+
+  /** A request held until its result is parsed. */
+  private static final class Pending {
+    final ChargeRequest chargeRequest;
+    final int totalAmount;
+    @Nullable final String requestMetadata;
+    final long heldAtMillis = SystemClock.elapsedRealtime();
+
+    Pending(ChargeRequest chargeRequest, int totalAmount, @Nullable String requestMetadata) {
+      this.chargeRequest = chargeRequest;
+      this.totalAmount = totalAmount;
+      this.requestMetadata = requestMetadata;
+    }
+
+    /** Builds the request of a template charge only when its result asks for it. */
+    ChargeRequest toChargeRequest() {
+      return chargeRequest.withAmountAndMetadata(totalAmount, requestMetadata);
+    }
+  }
+}
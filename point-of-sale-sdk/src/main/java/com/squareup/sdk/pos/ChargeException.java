@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import androidx.annotation.NonNull;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Completes the future returned by {@link ChargeLauncher#charge(ChargeRequest)} when Square Point
+ * of Sale returns a {@link ChargeRequest.Error}.
+ */
+public final class ChargeException extends Exception {
+
+  @NonNull public final ChargeRequest.Error error;
+
+  /**
+   * @throws NullPointerException if error is null.
+   */
+  public ChargeException(@NonNull ChargeRequest.Error error) {
+    super(nonNull(error, "error").code + ": " + error.debugDescription);
+    this.error = error;
+  }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * An append-only journal of the charges started with Square Point of Sale, to find the charges
+ * that never got a result because the app process was killed while Point of Sale was in the
+ * foreground.
+ *
+ * <pre class="code"><code class="java">
+ * chargeJournal = ChargeJournal.open(new File(context.getNoBackupFilesDir(), "charges.journal"));
+ * PosClient posClient = chargeJournal.wrap(PosSdk.createClient(context, CLIENT_ID));
+ *
+ * Intent chargeIntent = posClient.createChargeIntent(request);
+ * chargeJournal.onChargeStarted(chargeIntent);
+ * activity.startActivityForResult(chargeIntent, CHARGE_REQUEST_CODE);
+ *
+ * for (ChargeJournal.OrphanedCharge orphan : chargeJournal.orphanedCharges()) {
+ *   // Look the charge up with the Transactions API, then:
+ *   chargeJournal.dismiss(orphan);
+ * }
+ * </code></pre>
+ *
+ * <p>The wrapped client stamps a token in front of the request metadata of each charge intent it
+ * creates, like a {@link ChargeCorrelator}, and removes it from the results it parses. A charge
+ * is recorded when {@link #onChargeStarted(Intent)} is called with its intent, so intents that
+ * are never started aren't recorded, and completed when its result is parsed. A
+ * {@link ChargeRequest.ErrorCode#NO_RESULT} error has no request metadata, so its charge stays in
+ * the journal: its outcome is unknown. The results parsed by a client that the journal wraps
+ * still have the token, so wrap other clients, such as a {@link ChargeLedger}, around this one.
+ *
+ * <p>Charges are appended to a memory-mapped file without fsync, so that recording stays cheap
+ * enough for the charge path: the kernel writes the file back even if the app process is killed.
+ * A record only counts once it's fully written, so a process dying mid-write can't corrupt the
+ * journal. When the file is full, the open charges are rewritten to a new one.
+ */
+public final class ChargeJournal implements Closeable {
+
+  /** A charge started before the journal was opened, and never completed. */
+  public static final class OrphanedCharge {
+    @NonNull public final ChargeRequest chargeRequest;
+    /** The {@link System#currentTimeMillis()} at which the charge was started. */
+    public final long startedAtMillis;
+    final long id;
+
+    OrphanedCharge(Entry entry) {
+      chargeRequest = entry.toChargeRequest();
+      startedAtMillis = entry.startedAtMillis;
+      id = entry.id;
+    }
+  }
+
+  /** "PSJ1", and the version of the record format. */
+  private static final int MAGIC = 0x50534a31;
+  private static final int INITIAL_CAPACITY = 16 * 1024;
+  private static final byte RECORD_STARTED = 1;
+  private static final byte RECORD_COMPLETED = 2;
+  /** Starts the tokens of the journal, to tell them from the ones of a {@link ChargeCorrelator}. */
+  private static final String TOKEN_PREFIX = "journal.";
+  /** How many charge intents are held in memory until they're started, the oldest dropped first. */
+  private static final int MAX_CREATED = 16;
+
+  /** The charges started and not completed yet, oldest first. */
+  private final List<Entry> openEntries = new ArrayList<>();
+  private final List<OrphanedCharge> orphans = new ArrayList<>();
+  /** The charges whose intents were created and not started yet, by id, oldest first. */
+  private final LinkedHashMap<Long, Entry> createdEntries = new LinkedHashMap<>();
+  private final RecordFile recordFile;
+  /** Ids are random, so that a result can't complete the charge of another process. */
+  private final Random random = new Random();
+  private boolean closed;
+
+  /**
+   * Opens the journal stored in the file, creating it if needed. Opening reads the whole file, so
+   * call it off the main thread.
+   *
+   * @throws IOException if the file can't be mapped or isn't a charge journal.
+   * @throws NullPointerException if file is null.
+   */
+  @NonNull public static ChargeJournal open(@NonNull File file) throws IOException {
+    nonNull(file, "file");
+    return new ChargeJournal(file);
+  }
+
+  private ChargeJournal(File file) throws IOException {
+    recordFile = new RecordFile(file, MAGIC, INITIAL_CAPACITY, new RecordFile.Reader() {
+      @Override public void read(ByteBuffer source) {
+        byte type = source.get();
+        if (type == RECORD_STARTED) {
+          openEntries.add(Entry.readFrom(source));
+        } else if (type == RECORD_COMPLETED) {
+          removeOpenEntry(source.getLong());
+        }
+      }
+    });
+    for (Entry entry : openEntries) {
+      orphans.add(new OrphanedCharge(entry));
+    }
+  }
+
+  /**
+   * Returns a client that creates charge intents that {@link #onChargeStarted(Intent)} records in
+   * this journal, and completes their charges when it parses their results. If the journal can't
+   * be written when a result is parsed, the result is still returned, and the charge stays open.
+   *
+   * @throws NullPointerException if posClient is null.
+   */
+  @NonNull public PosClient wrap(@NonNull PosClient posClient) {
+    return new JournalingPosClient(nonNull(posClient, "posClient"), this);
+  }
+
+  /**
+   * The charges that were started before this journal was opened and were not completed since.
+   * A result delivered to the app after it restarts completes its charge, so check this once the
+   * activity that starts charges had a chance to handle its results.
+   */
+  @NonNull public synchronized List<OrphanedCharge> orphanedCharges() {
+    return Collections.unmodifiableList(new ArrayList<>(orphans));
+  }
+
+  /**
+   * Removes an orphaned charge from the journal, once it was reconciled.
+   *
+   * @throws NullPointerException if orphan is null.
+   * @throws java.io.UncheckedIOException if the journal could not be written.
+   * @throws IllegalStateException if this journal is closed.
+   */
+  public synchronized void dismiss(@NonNull OrphanedCharge orphan) {
+    nonNull(orphan, "orphan");
+    checkNotClosed();
+    complete(removeOpenEntry(orphan.id));
+  }
+
+  /**
+   * Records the charge of an intent created by a client of this journal as started. Call this
+   * right before starting the intent, for instance from {@link ChargeQueue.Launcher#startCharge}.
+   *
+   * @return {@code false} if the intent wasn't created by a client of this journal, was already
+   * started, or is one of more than 16 intents created since.
+   * @throws NullPointerException if chargeIntent is null.
+   * @throws java.io.UncheckedIOException if the journal could not be written.
+   * @throws IllegalStateException if this journal is closed.
+   */
+  @MainThread public synchronized boolean onChargeStarted(@NonNull Intent chargeIntent) {
+    nonNull(chargeIntent, "chargeIntent");
+    checkNotClosed();
+    Long id = idOf(chargeIntent.getStringExtra(PosApi.EXTRA_REQUEST_METADATA));
+    Entry created = id != null ? createdEntries.remove(id) : null;
+    if (created == null) {
+      return false;
+    }
+    Entry entry = new Entry(created.id, System.currentTimeMillis(), created.chargeRequest,
+        created.totalAmount, created.requestMetadata);
+    openEntries.add(entry);
+    if (!recordFile.append(entry)) {
+      recordFile.rewrite(openEntries);
+    }
+    return true;
+  }
+
+  /** Forces the journal to storage. The wrapped clients must not be used after this. */
+  @Override public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      recordFile.force();
+    }
+  }
+
+  /** @return a new token, to stamp on the request metadata of a charge intent. */
+  synchronized String newToken() {
+    checkNotClosed();
+    long id;
+    do {
+      id = random.nextLong();
+    } while (createdEntries.containsKey(id) || findOpenEntry(id) != null);
+    return TOKEN_PREFIX + Long.toString(id, Character.MAX_RADIX);
+  }
+
+  /**
+   * Holds the charge of an intent created with token until {@link #onChargeStarted(Intent)} is
+   * called with the intent.
+   */
+  synchronized void recordCreated(String token, ChargeRequest chargeRequest, int totalAmount,
+      @Nullable String requestMetadata) {
+    long id = Long.parseLong(token.substring(TOKEN_PREFIX.length()), Character.MAX_RADIX);
+    createdEntries.put(id, new Entry(id, 0, chargeRequest, totalAmount, requestMetadata));
+    if (createdEntries.size() > MAX_CREATED) {
+      Iterator<Entry> iterator = createdEntries.values().iterator();
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Completes the charge of a result with that stamped request metadata, if any.
+   *
+   * @return {@code true} if the request metadata has a token of a journal.
+   * @throws java.io.UncheckedIOException if the journal could not be written.
+   */
+  synchronized boolean recordCompleted(@Nullable String requestMetadata) {
+    Long id = idOf(requestMetadata);
+    if (id == null) {
+      return false;
+    }
+    checkNotClosed();
+    if (createdEntries.remove(id) == null) {
+      complete(removeOpenEntry(id));
+    }
+    return true;
+  }
+
+  /** @return the id in a token of a journal stamped on requestMetadata, or null. */
+  @Nullable private static Long idOf(@Nullable String requestMetadata) {
+    String token = ChargeCorrelator.tokenOf(requestMetadata);
+    if (token == null || !token.startsWith(TOKEN_PREFIX)) {
+      return null;
+    }
+    try {
+      return Long.parseLong(token.substring(TOKEN_PREFIX.length()), Character.MAX_RADIX);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private void complete(@Nullable Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    for (int i = 0; i < orphans.size(); i++) {
+      if (orphans.get(i).id == entry.id) {
+        orphans.remove(i);
+        break;
+      }
+    }
+    if (!recordFile.append(new Completion(entry.id))) {
+      // The entry isn't open anymore, so rewriting drops it.
+      recordFile.rewrite(openEntries);
+    }
+  }
+
+  @Nullable private Entry findOpenEntry(long id) {
+    for (int i = 0; i < openEntries.size(); i++) {
+      if (openEntries.get(i).id == id) {
+        return openEntries.get(i);
+      }
+    }
+    return null;
+  }
+
+  @Nullable private Entry removeOpenEntry(long id) {
+    for (int i = 0; i < openEntries.size(); i++) {
+      if (openEntries.get(i).id == id) {
+        return openEntries.remove(i);
+      }
+    }
+    return null;
+  }
+
+  private void checkNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("This charge journal is closed.");
+    }
+  }
+
+  private static final class Completion implements RecordFile.Record {
+    private final long id;
+
+    Completion(long id) {
+      this.id = id;
+    }
+
+    @Override public void writeTo(ByteBuffer target) {
+      target.put(RECORD_COMPLETED);
+      target.putLong(id);
+    }
+  }
+
+  /** A started charge, with the fields of the request it was started from. */
+  private static final class Entry implements RecordFile.Record {
+    final long id;
+    final long startedAtMillis;
+    final ChargeRequest chargeRequest;
+    final int totalAmount;
+    @Nullable final String requestMetadata;
+
+    Entry(long id, long startedAtMillis, ChargeRequest chargeRequest, int totalAmount,
+        @Nullable String requestMetadata) {
+      this.id = id;
+      this.startedAtMillis = startedAtMillis;
+      this.chargeRequest = chargeRequest;
+      this.totalAmount = totalAmount;
+      this.requestMetadata = requestMetadata;
+    }
+
+    ChargeRequest toChargeRequest() {
+      return chargeRequest.withAmountAndMetadata(totalAmount, requestMetadata);
+    }
+
+    @Override public void writeTo(ByteBuffer target) {
+      target.put(RECORD_STARTED);
+      target.putLong(id);
+      target.putLong(startedAtMillis);
+      target.putInt(totalAmount);
+      RecordFile.putString(target, chargeRequest.currencyCode.name());
+      target.putInt(chargeRequest.tenderMask);
+      target.putLong(chargeRequest.autoReturnMillis);
+      RecordFile.putString(target, chargeRequest.note);
+      RecordFile.putString(target, chargeRequest.locationId);
+      RecordFile.putString(target, chargeRequest.customerId);
+      RecordFile.putString(target, requestMetadata);
+    }
+
+    static Entry readFrom(ByteBuffer source) {
+      long id = source.getLong();
+      long startedAtMillis = source.getLong();
+      int totalAmount = source.getInt();
+      CurrencyCode currencyCode = CurrencyCode.valueOf(RecordFile.getNonNullString(source));
+      ChargeRequest.Builder builder = new ChargeRequest.Builder(totalAmount, currencyCode);
+      builder.tenderMask = source.getInt() & TenderTypes.ALL;
+      builder.autoReturnMillis = source.getLong();
+      builder.note = RecordFile.getString(source);
+      builder.locationId = RecordFile.getString(source);
+      builder.customerId = RecordFile.getString(source);
+      builder.requestMetadata = RecordFile.getString(source);
+      ChargeRequest chargeRequest = builder.build();
+      return new Entry(id, startedAtMillis, chargeRequest, totalAmount,
+          chargeRequest.requestMetadata);
+    }
+  }
+}
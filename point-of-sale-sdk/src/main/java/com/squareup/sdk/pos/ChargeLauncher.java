@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import androidx.activity.result.ActivityResult;
+import androidx.activity.result.ActivityResultCallback;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.ActivityResultRegistry;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.lifecycle.ViewModelStoreOwner;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Starts charges through an {@link ActivityResultRegistry} and returns their results as futures,
+ * so that the charge can be composed with other asynchronous work instead of being handled in
+ * {@code onActivityResult()}.
+ *
+ * <pre class="code"><code class="java">
+ * {@literal @}Override protected void onCreate(Bundle savedInstanceState) {
+ *   super.onCreate(savedInstanceState);
+ *   chargeLauncher = new ChargeLauncher(posClient, getActivityResultRegistry(), this,
+ *       backgroundExecutor);
+ * }
+ *
+ * void checkout(ChargeRequest request) {
+ *   CompletableFuture&lt;Receipt&gt; receipt = prepareReceipt(request);
+ *   chargeLauncher.charge(request)
+ *       .thenCombine(receipt, (success, preparedReceipt) -&gt; preparedReceipt.paidWith(success))
+ *       .thenAccept(this::printReceipt);
+ * }
+ * </code></pre>
+ *
+ * <p>The result is parsed and the future is completed on the executor passed to the constructor,
+ * never on the main thread. A future completes exceptionally with a {@link ChargeException} when
+ * Point of Sale returns an error or when an interceptor rejects the charge with a
+ * {@link ChargeRejectedException}, and with an {@link ActivityNotFoundException} when Point of Sale
+ * is not installed.
+ *
+ * <p>The charges in progress belong to the activity or fragment that owns the launcher, through a
+ * {@link ViewModel}, so launchers of different activities don't share them. They are kept when the
+ * activity is recreated for a configuration change, and the launcher created by the new activity
+ * with the same key completes the same future, which {@link #chargeInProgress()} returns:
+ *
+ * <pre class="code"><code class="java">
+ * CompletableFuture&lt;ChargeRequest.Success&gt; pending = chargeLauncher.chargeInProgress();
+ * if (pending != null) {
+ *   pending.thenAccept(this::showReceipt);
+ * }
+ * </code></pre>
+ *
+ * <p>When the activity finishes, the futures of its charges are canceled, so that they don't keep
+ * its callbacks.
+ *
+ * <p>A result delivered after the future was canceled or after the process was killed has no
+ * future to complete: it is still parsed with the {@link PosClient}, so a client wrapped by a
+ * {@link ChargeJournal} or a {@link ChargeLedger} records it.
+ *
+ * <p>A charge started with an idempotency key, with {@link #charge(ChargeRequest, String)}, is not
+ * started again by a double tap: an equal request with the same key returns the future of the
+ * first charge while it is in progress, and for ten seconds after it succeeded.
+ *
+ * <p>Point of Sale handles one charge at a time: chain charges on the returned futures, or use a
+ * {@link ChargeQueue}. Charges must start on the main thread, so chain them with an executor that
+ * runs on the main thread, such as {@code thenComposeAsync(next, mainExecutor)}.
+ *
+ * <p>The core SDK doesn't depend on AndroidX Activity: apps that use this class must depend on
+ * {@code androidx.activity:activity} 1.7.1 or later.
+ */
+public final class ChargeLauncher {
+
+  /** The registry key of launchers created without an explicit key. */
+  public static final String DEFAULT_KEY = "com.squareup.sdk.pos.charge";
+
+  private static final ViewModelProvider.Factory CHARGES_FACTORY =
+      new ViewModelProvider.Factory() {
+        @NonNull @Override public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+          return modelClass.cast(new Charges());
+        }
+      };
+
+  private final PosClient posClient;
+  private final Executor resultExecutor;
+  private final String key;
+  private final ActivityResultLauncher<Intent> launcher;
+  private final Charges charges;
+
+  /**
+   * Registers with {@link #DEFAULT_KEY}.
+   *
+   * @see #ChargeLauncher(PosClient, ActivityResultRegistry, LifecycleOwner, Executor, String)
+   */
+  @MainThread public ChargeLauncher(@NonNull PosClient posClient,
+      @NonNull ActivityResultRegistry registry, @NonNull LifecycleOwner lifecycleOwner,
+      @NonNull Executor resultExecutor) {
+    this(posClient, registry, lifecycleOwner, resultExecutor, DEFAULT_KEY);
+  }
+
+  /**
+   * Registers with the registry for the lifetime of the lifecycle owner. Like any registration
+   * tied to a lifecycle, this must happen before the owner is started, typically in
+   * {@code onCreate()}. The launcher takes over the charge in progress with the same key, if any,
+   * for instance the one started before a configuration change.
+   *
+   * @param resultExecutor parses the results and completes the futures. It should not run tasks
+   * on the main thread.
+   * @param key identifies the charges of this launcher in the registry. Use a distinct key for
+   * each launcher of the same registry.
+   * @param lifecycleOwner the activity or fragment that owns the launcher. It must be a
+   * {@link ViewModelStoreOwner}, as {@code ComponentActivity} and {@code Fragment} are.
+   * @throws NullPointerException if any argument is null.
+   * @throws IllegalArgumentException if the lifecycle owner is not a {@link ViewModelStoreOwner}.
+   * @throws IllegalStateException if the lifecycle owner is already started.
+   */
+  @MainThread public ChargeLauncher(@NonNull PosClient posClient,
+      @NonNull ActivityResultRegistry registry, @NonNull LifecycleOwner lifecycleOwner,
+      @NonNull Executor resultExecutor, @NonNull String key) {
+    this.posClient = nonNull(posClient, "posClient");
+    this.resultExecutor = nonNull(resultExecutor, "resultExecutor");
+    this.key = nonNull(key, "key");
+    nonNull(registry, "registry");
+    nonNull(lifecycleOwner, "lifecycleOwner");
+    if (!(lifecycleOwner instanceof ViewModelStoreOwner)) {
+      throw new IllegalArgumentException("lifecycleOwner must be a ViewModelStoreOwner");
+    }
+    launcher = registry.register(key, lifecycleOwner,
+        new ActivityResultContracts.StartActivityForResult(),
+        new ActivityResultCallback<ActivityResult>() {
+          @Override public void onActivityResult(ActivityResult result) {
+            onChargeResult(result.getResultCode(), result.getData());
+          }
+        });
+    charges = new ViewModelProvider((ViewModelStoreOwner) lifecycleOwner, CHARGES_FACTORY)
+        .get(Charges.class);
+  }
+
+  /**
+   * Starts a charge.
+   *
+   * @return a future completed with the {@link ChargeRequest.Success} of the charge.
+   * @throws NullPointerException if chargeRequest is null.
+   * @throws IllegalStateException if a charge started with the key of this launcher is still in
+   * progress, see {@link #cancel()}.
+   */
+  @MainThread @NonNull
+  public CompletableFuture<ChargeRequest.Success> charge(@NonNull ChargeRequest chargeRequest) {
+    nonNull(chargeRequest, "chargeRequest");
+    return launch(new CompletableFuture<ChargeRequest.Success>(), chargeRequest, null, 0, null);
+  }
+
+  /**
+   * Starts a charge, unless a charge with an equal request and the same idempotency key is in
+   * progress or succeeded less than ten seconds ago, in which case its future is returned. A
+   * charge that failed can be started again right away.
+   *
+   * @param idempotencyKey identifies the purchase that the charge pays for, such as an order id.
+   * @return a future completed with the {@link ChargeRequest.Success} of the charge.
+   * @throws NullPointerException if chargeRequest or idempotencyKey is null.
+   * @throws IllegalStateException if another charge started with the key of this launcher is
+   * still in progress, see {@link #cancel()}.
+   */
+  @MainThread @NonNull public CompletableFuture<ChargeRequest.Success> charge(
+      @NonNull ChargeRequest chargeRequest, @NonNull String idempotencyKey) {
+    nonNull(chargeRequest, "chargeRequest");
+    nonNull(idempotencyKey, "idempotencyKey");
+    CompletableFuture<ChargeRequest.Success> duplicate =
+        charges.duplicates.find(chargeRequest, idempotencyKey);
+    if (duplicate != null) {
+      FlightRecorder.shared.record(FlightRecorder.Event.CHARGE_COALESCED, idempotencyKey, 0);
+      return duplicate;
+    }
+    CompletableFuture<ChargeRequest.Success> future = new CompletableFuture<>();
+    charges.duplicates.add(chargeRequest, idempotencyKey, future);
+    try {
+      return launch(future, chargeRequest, null, 0, null);
+    } catch (RuntimeException e) {
+      // Forgets the charge that could not start.
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Starts a charge from a template, like
+   * {@link PosClient#createChargeIntent(ChargeTemplate, int, String)}.
+   *
+   * @return a future completed with the {@link ChargeRequest.Success} of the charge.
+   * @throws NullPointerException if chargeTemplate is null.
+   * @throws IllegalArgumentException if totalAmount is negative.
+   * @throws IllegalStateException if a charge started with the key of this launcher is still in
+   * progress, see {@link #cancel()}.
+   */
+  @MainThread @NonNull public CompletableFuture<ChargeRequest.Success> charge(
+      @NonNull ChargeTemplate chargeTemplate, int totalAmount, @Nullable String requestMetadata) {
+    nonNull(chargeTemplate, "chargeTemplate");
+    if (totalAmount < 0) {
+      throw new IllegalArgumentException("totalAmount must be non negative, not " + totalAmount);
+    }
+    return launch(new CompletableFuture<ChargeRequest.Success>(), null, chargeTemplate,
+        totalAmount, requestMetadata);
+  }
+
+  /** @return {@code true} if a charge started with the key of this launcher has no result yet. */
+  public boolean isChargeInProgress() {
+    synchronized (charges.inFlight) {
+      return charges.inFlight.containsKey(key);
+    }
+  }
+
+  /**
+   * @return the future of the charge started with the key of this launcher that has no result
+   * yet, or {@code null}. After a configuration change, this is the future of the charge that the
+   * previous activity started.
+   */
+  @Nullable public CompletableFuture<ChargeRequest.Success> chargeInProgress() {
+    synchronized (charges.inFlight) {
+      return charges.inFlight.get(key);
+    }
+  }
+
+  /**
+   * Cancels the future of the charge in progress and forgets the charge, so that another one can
+   * start. Use this when Point of Sale will not return a result, for instance because the
+   * merchant gave up waiting for it. If Point of Sale still returns a result before another
+   * charge starts, it is parsed like a result that has no future.
+   *
+   * @return {@code true} if a charge was in progress.
+   */
+  @MainThread public boolean cancel() {
+    CompletableFuture<ChargeRequest.Success> future = takeInFlight();
+    if (future == null) {
+      return false;
+    }
+    future.cancel(false);
+    return true;
+  }
+
+  private CompletableFuture<ChargeRequest.Success> launch(
+      CompletableFuture<ChargeRequest.Success> future, @Nullable ChargeRequest chargeRequest,
+      @Nullable ChargeTemplate chargeTemplate, int totalAmount, @Nullable String requestMetadata) {
+    synchronized (charges.inFlight) {
+      if (charges.inFlight.containsKey(key)) {
+        throw new IllegalStateException("A charge is already in progress for " + key);
+      }
+      charges.inFlight.put(key, future);
+    }
+    try {
+      Intent chargeIntent = chargeRequest != null
+          ? posClient.createChargeIntent(chargeRequest)
+          : posClient.createChargeIntent(chargeTemplate, totalAmount, requestMetadata);
+      launcher.launch(chargeIntent);
+    } catch (ActivityNotFoundException e) {
+      takeInFlight();
+      future.completeExceptionally(e);
+    } catch (ChargeRejectedException e) {
+      takeInFlight();
+      future.completeExceptionally(new ChargeException(e.error));
+    } catch (RuntimeException e) {
+      takeInFlight();
+      throw e;
+    }
+    return future;
+  }
+
+  @Nullable private CompletableFuture<ChargeRequest.Success> takeInFlight() {
+    synchronized (charges.inFlight) {
+      return charges.inFlight.remove(key);
+    }
+  }
+
+  private void onChargeResult(final int resultCode, @Nullable final Intent data) {
+    final CompletableFuture<ChargeRequest.Success> future = takeInFlight();
+    resultExecutor.execute(new Runnable() {
+      @Override public void run() {
+        ChargeRequest.Success success = null;
+        ChargeRequest.Error error = null;
+        try {
+          if (data == null) {
+            // This happens if Point of Sale was uninstalled or crashed while we're waiting for a
+            // result.
+            error = new ChargeRequest.Error(ChargeRequest.ErrorCode.NO_RESULT,
+                "Square Point of Sale did not return a result.", null);
+          } else if (resultCode == Activity.RESULT_OK) {
+            success = posClient.parseChargeSuccess(data);
+          } else {
+            error = posClient.parseChargeError(data);
+          }
+        } catch (RuntimeException e) {
+          if (future == null) {
+            throw e;
+          }
+          future.completeExceptionally(e);
+          return;
+        }
+        if (future == null) {
+          return;
+        }
+        if (success != null) {
+          future.complete(success);
+        } else {
+          future.completeExceptionally(new ChargeException(error));
+        }
+      }
+    });
+  }
+
+  /**
+   * The charges of the launchers of an activity or fragment, which outlive its configuration
+   * changes and are canceled when it finishes.
+   */
+  private static final class Charges extends ViewModel {
+    /** The future of the charge in progress for each registry key. Guarded by the map. */
+    final Map<String, CompletableFuture<ChargeRequest.Success>> inFlight = new HashMap<>();
+    /** The charges started with an idempotency key. */
+    final DuplicateChargeGuard duplicates = new DuplicateChargeGuard(10_000);
+
+    @Override protected void onCleared() {
+      List<CompletableFuture<ChargeRequest.Success>> canceled;
+      synchronized (inFlight) {
+        canceled = new ArrayList<>(inFlight.values());
+        inFlight.clear();
+      }
+      for (CompletableFuture<ChargeRequest.Success> future : canceled) {
+        future.cancel(false);
+      }
+    }
+  }
+}
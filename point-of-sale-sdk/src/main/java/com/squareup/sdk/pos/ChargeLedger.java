@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * A local ledger of charge results, indexed by client transaction ID and by request metadata, so
+ * that reconciling the charges of a device is a lookup rather than a scan.
+ *
+ * <pre class="code"><code class="java">
+ * chargeLedger = ChargeLedger.open(new File(context.getNoBackupFilesDir(), "charges.ledger"));
+ * PosClient posClient = chargeLedger.wrap(PosSdk.createClient(context, CLIENT_ID));
+ *
+ * // At the end of the day:
+ * ChargeLedger.Entry entry = chargeLedger.findByClientTransactionId(clientTransactionId);
+ * List&lt;ChargeLedger.Entry&gt; attempts = chargeLedger.findByRequestMetadata("#329");
+ * // Once reconciled:
+ * chargeLedger.removeRecordedBefore(startOfDayMillis);
+ * </code></pre>
+ *
+ * <p>The wrapped client records every result it parses. Results are appended to a memory-mapped
+ * file of compact binary records. Recording a result compacts the ledger, by rewriting its results
+ * to a new file, when the file is three quarters full, and at most once an hour when results are
+ * older than the {@linkplain Builder#retainFor(long, TimeUnit) retention period}, which removes
+ * them. Compaction runs on the thread that records, usually the main thread, unless the ledger is
+ * opened with an executor:
+ *
+ * <pre class="code"><code class="java">
+ * chargeLedger = new ChargeLedger.Builder(file)
+ *     .compactOn(backgroundExecutor)
+ *     .retainFor(30, TimeUnit.DAYS)
+ *     .open();
+ * </code></pre>
+ */
+public final class ChargeLedger implements Closeable {
+
+  /** A recorded charge result, either a {@link #success} or an {@link #error}. */
+  public static final class Entry {
+    /** The {@link System#currentTimeMillis()} at which the result was recorded. */
+    public final long recordedAtMillis;
+    /** The result of a successful charge, or null if the charge failed. */
+    @Nullable public final ChargeRequest.Success success;
+    /** The result of a failed charge, or null if the charge succeeded. */
+    @Nullable public final ChargeRequest.Error error;
+    /** The entry recorded before this one with the same request metadata. */
+    @Nullable Entry previousWithSameMetadata;
+
+    Entry(long recordedAtMillis, @Nullable ChargeRequest.Success success,
+        @Nullable ChargeRequest.Error error) {
+      this.recordedAtMillis = recordedAtMillis;
+      this.success = success;
+      this.error = error;
+    }
+
+    /** @return the request metadata returned with the result. */
+    @Nullable public String requestMetadata() {
+      return success != null ? success.requestMetadata : error.requestMetadata;
+    }
+  }
+
+  /** "PSL1", and the version of the record format. */
+  private static final int MAGIC = 0x50534c31;
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  private static final byte RECORD_SUCCESS = 1;
+  private static final byte RECORD_ERROR = 2;
+  /** How often results older than the retention period are removed, at most. */
+  private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  /** Compacts on the thread that records. */
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  /** Every entry, in the order they were recorded. */
+  private final List<Entry> entries = new ArrayList<>();
+  private final Map<String, Entry> entriesByClientTransactionId = new HashMap<>();
+  /** The latest entry for each request metadata, which links to the previous ones. */
+  private final Map<String, Entry> latestEntriesByRequestMetadata = new HashMap<>();
+  private final RecordFile recordFile;
+  private final Executor compactionExecutor;
+  /** Zero to keep results until they are removed. */
+  private final long retentionMillis;
+  private boolean compacting;
+  private long lastCompactedAtMillis;
+  /** Counts calls to {@link #removeRecordedBefore(long)}, to abandon compactions started before. */
+  private int removals;
+  private boolean closed;
+
+  /**
+   * Opens the ledger stored in the file, creating it if needed. Opening reads the whole file, so
+   * call it off the main thread.
+   *
+   * @throws IOException if the file can't be mapped or isn't a charge ledger.
+   * @throws NullPointerException if file is null.
+   */
+  @NonNull public static ChargeLedger open(@NonNull File file) throws IOException {
+    return new Builder(file).open();
+  }
+
+  private ChargeLedger(Builder builder) throws IOException {
+    compactionExecutor = builder.compactionExecutor;
+    retentionMillis = builder.retentionMillis;
+    recordFile = new RecordFile(builder.file, MAGIC, INITIAL_CAPACITY, new RecordFile.Reader() {
+      @Override public void read(ByteBuffer source) {
+        Entry entry = readEntry(source);
+        if (entry.success == null || !isRecorded(entry.success)) {
+          index(entry);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns a client that records in this ledger the results it parses.
+   *
+   * @throws NullPointerException if posClient is null.
+   */
+  @NonNull public PosClient wrap(@NonNull PosClient posClient) {
+    return new LedgerPosClient(nonNull(posClient, "posClient"), this);
+  }
+
+  /**
+   * Records the result of a successful charge.
+   *
+   * @return {@code false} if a result with the same client transaction ID was already recorded, in
+   * which case it is not recorded again.
+   * @throws NullPointerException if success is null.
+   * @throws java.io.UncheckedIOException if the ledger could not be written.
+   * @throws IllegalStateException if this ledger is closed.
+   */
+  public synchronized boolean record(@NonNull ChargeRequest.Success success) {
+    nonNull(success, "success");
+    checkNotClosed();
+    if (isRecorded(success)) {
+      return false;
+    }
+    append(new Entry(System.currentTimeMillis(), success, null));
+    return true;
+  }
+
+  /**
+   * Records the result of a failed charge.
+   *
+   * @throws NullPointerException if error is null.
+   * @throws java.io.UncheckedIOException if the ledger could not be written.
+   * @throws IllegalStateException if this ledger is closed.
+   */
+  public synchronized void record(@NonNull ChargeRequest.Error error) {
+    nonNull(error, "error");
+    checkNotClosed();
+    append(new Entry(System.currentTimeMillis(), null, error));
+  }
+
+  /** @return the successful charge with that client transaction ID, or null if none. */
+  @Nullable public synchronized Entry findByClientTransactionId(
+      @NonNull String clientTransactionId) {
+    return entriesByClientTransactionId.get(nonNull(clientTransactionId, "clientTransactionId"));
+  }
+
+  /** @return every result returned with that request metadata, oldest first. */
+  @NonNull public synchronized List<Entry> findByRequestMetadata(@NonNull String requestMetadata) {
+    Entry entry = latestEntriesByRequestMetadata.get(nonNull(requestMetadata, "requestMetadata"));
+    if (entry == null) {
+      return Collections.emptyList();
+    }
+    List<Entry> found = new ArrayList<>();
+    for (; entry != null; entry = entry.previousWithSameMetadata) {
+      found.add(entry);
+    }
+    Collections.reverse(found);
+    return found;
+  }
+
+  /** @return every recorded result, in the order they were recorded. */
+  @NonNull public synchronized List<Entry> entries() {
+    return Collections.unmodifiableList(new ArrayList<>(entries));
+  }
+
+  /** @return the number of recorded results. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes the results recorded before a time, for example once they were reconciled, and
+   * rewrites the ledger without them on the calling thread.
+   *
+   * @return the number of results removed.
+   * @throws java.io.UncheckedIOException if the ledger could not be written.
+   * @throws IllegalStateException if this ledger is closed.
+   */
+  public synchronized int removeRecordedBefore(long timeMillis) {
+    checkNotClosed();
+    List<Entry> kept = recordedSince(timeMillis);
+    int removed = entries.size() - kept.size();
+    if (removed == 0) {
+      return 0;
+    }
+    reindex(kept);
+    removals++;
+    recordFile.rewrite(records(entries));
+    return removed;
+  }
+
+  /** Forces the ledger to storage. The wrapped clients must not be used after this. */
+  @Override public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      recordFile.force();
+    }
+  }
+
+  private boolean isRecorded(ChargeRequest.Success success) {
+    return success.clientTransactionId != null
+        && entriesByClientTransactionId.containsKey(success.clientTransactionId);
+  }
+
+  private void append(Entry entry) {
+    index(entry);
+    // While the ledger is compacted, a result the file has no room for is written to the new file.
+    boolean appended = recordFile.append(new EntryRecord(entry));
+    if (!compacting
+        && (!appended || recordFile.isMostlyFull() || hasExpired(entry.recordedAtMillis))) {
+      compact(entry.recordedAtMillis);
+    }
+  }
+
+  private boolean hasExpired(long nowMillis) {
+    return retentionMillis > 0
+        && nowMillis - lastCompactedAtMillis >= COMPACTION_INTERVAL_MILLIS
+        && entries.get(0).recordedAtMillis < nowMillis - retentionMillis;
+  }
+
+  /**
+   * Writes the results that are kept to a new file on the compaction executor, without holding the
+   * lock of the ledger, then appends the results recorded meanwhile and replaces the file. If the
+   * executor rejects the compaction, it runs on the calling thread instead.
+   */
+  private void compact(long nowMillis) {
+    compacting = true;
+    lastCompactedAtMillis = nowMillis;
+    final List<Entry> kept =
+        recordedSince(retentionMillis > 0 ? nowMillis - retentionMillis : Long.MIN_VALUE);
+    final int recordedCount = entries.size();
+    final int capacity = recordFile.capacity();
+    final int removals = this.removals;
+    Runnable compaction = new Runnable() {
+      @Override public void run() {
+        RecordFile.Rewrite rewrite = null;
+        try {
+          rewrite = recordFile.startRewrite(records(kept), capacity);
+        } finally {
+          finishCompaction(rewrite, kept, recordedCount, removals);
+        }
+      }
+    };
+    try {
+      compactionExecutor.execute(compaction);
+    } catch (RejectedExecutionException e) {
+      // Skipping it would leave the ledger compacting forever, and drop results once it's full.
+      compaction.run();
+    }
+  }
+
+  private synchronized void finishCompaction(@Nullable RecordFile.Rewrite rewrite,
+      List<Entry> kept, int recordedCount, int removals) {
+    compacting = false;
+    if (rewrite == null) {
+      return;
+    }
+    if (removals != this.removals) {
+      // The file was rewritten since, without the removed results.
+      rewrite.abandon();
+      return;
+    }
+    List<Entry> recorded = new ArrayList<>(entries.subList(recordedCount, entries.size()));
+    kept.addAll(recorded);
+    reindex(kept);
+    for (Entry entry : recorded) {
+      if (!rewrite.append(new EntryRecord(entry))) {
+        // So many results were recorded meanwhile that the new file is already full.
+        rewrite.abandon();
+        recordFile.rewrite(records(entries));
+        return;
+      }
+    }
+    rewrite.replace();
+    if (closed) {
+      recordFile.force();
+    }
+  }
+
+  private List<Entry> recordedSince(long timeMillis) {
+    List<Entry> kept = new ArrayList<>(entries.size());
+    for (Entry entry : entries) {
+      if (entry.recordedAtMillis >= timeMillis) {
+        kept.add(entry);
+      }
+    }
+    return kept;
+  }
+
+  private void reindex(List<Entry> kept) {
+    entries.clear();
+    entriesByClientTransactionId.clear();
+    latestEntriesByRequestMetadata.clear();
+    for (Entry entry : kept) {
+      entry.previousWithSameMetadata = null;
+      index(entry);
+    }
+  }
+
+  private void index(Entry entry) {
+    entries.add(entry);
+    if (entry.success != null && entry.success.clientTransactionId != null) {
+      entriesByClientTransactionId.put(entry.success.clientTransactionId, entry);
+    }
+    String requestMetadata = entry.requestMetadata();
+    if (requestMetadata != null) {
+      entry.previousWithSameMetadata =
+          latestEntriesByRequestMetadata.put(requestMetadata, entry);
+    }
+  }
+
+  /** A view of entries as records, to rewrite the file. */
+  private static List<RecordFile.Record> records(final List<Entry> entries) {
+    return new AbstractList<RecordFile.Record>() {
+      @Override public RecordFile.Record get(int index) {
+        return new EntryRecord(entries.get(index));
+      }
+
+      @Override public int size() {
+        return entries.size();
+      }
+    };
+  }
+
+  private void checkNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("This charge ledger is closed.");
+    }
+  }
+
+  private static Entry readEntry(ByteBuffer source) {
+    byte type = source.get();
+    long recordedAtMillis = source.getLong();
+    if (type == RECORD_SUCCESS) {
+      String clientTransactionId = RecordFile.getString(source);
+      String serverTransactionId = RecordFile.getString(source);
+      String requestMetadata = RecordFile.getString(source);
+      return new Entry(recordedAtMillis,
+          new ChargeRequest.Success(clientTransactionId, serverTransactionId, requestMetadata),
+          null);
+    } else if (type == RECORD_ERROR) {
+      String code = RecordFile.getString(source);
+      String debugDescription = RecordFile.getString(source);
+      String requestMetadata = RecordFile.getString(source);
+      // Codes are written as API codes, and one this version doesn't know is read as null, as it
+      // is in a result from Point of Sale.
+      return new Entry(recordedAtMillis, null, new ChargeRequest.Error(
+          ChargeRequest.ErrorCode.parse(code), debugDescription, requestMetadata));
+    }
+    throw new IllegalArgumentException("Unknown record type " + type);
+  }
+
+  private static final class EntryRecord implements RecordFile.Record {
+    private final Entry entry;
+
+    EntryRecord(Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override public void writeTo(ByteBuffer target) {
+      ChargeRequest.Success success = entry.success;
+      if (success != null) {
+        target.put(RECORD_SUCCESS);
+        target.putLong(entry.recordedAtMillis);
+        RecordFile.putString(target, success.clientTransactionId);
+        RecordFile.putString(target, success.serverTransactionId);
+        RecordFile.putString(target, success.requestMetadata);
+      } else {
+        ChargeRequest.Error error = entry.error;
+        target.put(RECORD_ERROR);
+        target.putLong(entry.recordedAtMillis);
+        RecordFile.putString(target, error.code != null ? error.code.apiCode : null);
+        RecordFile.putString(target, error.debugDescription);
+        RecordFile.putString(target, error.requestMetadata);
+      }
+    }
+  }
+
+  /** Configures how a {@link ChargeLedger} is compacted. */
+  public static final class Builder {
+    final File file;
+    Executor compactionExecutor = DIRECT_EXECUTOR;
+    long retentionMillis;
+
+    /** @throws NullPointerException if file is null. */
+    public Builder(@NonNull File file) {
+      this.file = nonNull(file, "file");
+    }
+
+    /**
+     * Compacts the ledger on executor rather than on the thread that records, usually the main
+     * thread. Results recorded meanwhile are appended to the file and then to the new one.
+     *
+     * @throws NullPointerException if executor is null.
+     */
+    @NonNull public Builder compactOn(@NonNull Executor executor) {
+      compactionExecutor = nonNull(executor, "executor");
+      return this;
+    }
+
+    /**
+     * Removes the results older than duration when the ledger is compacted. By default, results
+     * are kept until they are {@linkplain ChargeLedger#removeRecordedBefore(long) removed}.
+     *
+     * @throws IllegalArgumentException if duration isn't positive.
+     * @throws NullPointerException if unit is null.
+     */
+    @NonNull public Builder retainFor(long duration, @NonNull TimeUnit unit) {
+      if (duration <= 0) {
+        throw new IllegalArgumentException("duration must be positive");
+      }
+      retentionMillis = nonNull(unit, "unit").toMillis(duration);
+      return this;
+    }
+
+    /**
+     * Opens the ledger stored in the file, creating it if needed. Opening reads the whole file, so
+     * call it off the main thread.
+     *
+     * @throws IOException if the file can't be mapped or isn't a charge ledger.
+     */
+    @NonNull public ChargeLedger open() throws IOException {
+      return new ChargeLedger(this);
+    }
+  }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Starts charges one at a time. A charge enqueued while another one is in progress waits for its
+ * turn instead of switching to Square Point of Sale only to fail with
+ * {@link ChargeRequest.ErrorCode#TRANSACTION_ALREADY_IN_PROGRESS}. The next charge starts as soon
+ * as the result of the current one is parsed.
+ *
+ * <pre class="code"><code class="java">
+ * chargeQueue = new ChargeQueue(posClient, new ChargeQueue.Launcher() {
+ *   {@literal @}Override public void startCharge(Intent chargeIntent) {
+ *     startActivityForResult(chargeIntent, CHARGE_REQUEST_CODE);
+ *   }
+ * }, callback);
+ *
+ * chargeQueue.enqueue(request);
+ *
+ * {@literal @}Override protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+ *   if (requestCode == CHARGE_REQUEST_CODE) {
+ *     chargeQueue.onChargeResult(resultCode, data);
+ *   }
+ * }
+ * </code></pre>
+ *
+ * <p>The charge in progress and the enqueued ones are kept in the saved instance state, so that
+ * the queue of a recreated activity, even in a new process, receives the result of the charge
+ * that Point of Sale returns to it:
+ *
+ * <pre class="code"><code class="java">
+ * {@literal @}Override protected void onCreate(Bundle savedInstanceState) {
+ *   super.onCreate(savedInstanceState);
+ *   chargeQueue = new ChargeQueue(posClient, launcher, callback);
+ *   chargeQueue.onRestoreInstanceState(savedInstanceState);
+ * }
+ *
+ * {@literal @}Override protected void onSaveInstanceState(Bundle outState) {
+ *   super.onSaveInstanceState(outState);
+ *   chargeQueue.onSaveInstanceState(outState);
+ * }
+ *
+ * {@literal @}Override protected void onDestroy() {
+ *   super.onDestroy();
+ *   chargeQueue.onDestroy();
+ * }
+ * </code></pre>
+ *
+ * <p>A queue created with a {@link ChargeRetryPolicy} starts a charge that failed with a
+ * transient error again after a backoff, and only passes its last result to the {@link Callback}.
+ * The charge stays in progress while it waits to be retried, and a queue restored from the saved
+ * instance state retries it.
+ *
+ * <p>A {@code ChargeQueue} must only be used from the main thread.
+ */
+public final class ChargeQueue {
+
+  /** Starts the Point of Sale activity for a charge intent, with a request code. */
+  public interface Launcher {
+    void startCharge(@NonNull Intent chargeIntent);
+  }
+
+  /** Receives the result of each charge started by a {@link ChargeQueue}. */
+  public interface Callback {
+    void onChargeSuccess(@NonNull ChargeRequest chargeRequest,
+        @NonNull ChargeRequest.Success success);
+
+    void onChargeError(@NonNull ChargeRequest chargeRequest, @NonNull ChargeRequest.Error error);
+
+    /**
+     * Called for each enqueued charge that is dropped because Square Point of Sale was uninstalled
+     * while a charge waited to be retried. A charge that can't start when it's enqueued or when
+     * a result is handled makes {@link #enqueue} or {@link #onChargeResult} throw instead.
+     */
+    void onChargeNotStarted(@NonNull ChargeRequest chargeRequest,
+        @NonNull ActivityNotFoundException e);
+  }
+
+  private static final String KEY_STATE = "com.squareup.sdk.pos.ChargeQueue";
+  private static final String KEY_IN_FLIGHT = "inFlight";
+  private static final String KEY_RETRIES = "retries";
+  private static final String KEY_LAST_ERROR = "lastError";
+  private static final String KEY_PENDING = "pending";
+
+  private final PosClient posClient;
+  private final Launcher launcher;
+  private final Callback callback;
+  @Nullable private final ChargeRetryPolicy retryPolicy;
+  private final Deque<ChargeRequest> pending = new ArrayDeque<>();
+  @Nullable private ChargeRequest inFlight;
+  /** How many times the charge in progress was retried. */
+  private int inFlightRetries;
+  /** The retry waiting for its backoff, or null. */
+  @Nullable private Retry scheduledRetry;
+  @Nullable private Handler handler;
+
+  /**
+   * @throws NullPointerException if any argument is null.
+   */
+  public ChargeQueue(@NonNull PosClient posClient, @NonNull Launcher launcher,
+      @NonNull Callback callback) {
+    this(posClient, launcher, callback, null);
+  }
+
+  /**
+   * @param retryPolicy decides which failed charges start again, or null to never retry.
+   * @throws NullPointerException if posClient, launcher or callback is null.
+   */
+  public ChargeQueue(@NonNull PosClient posClient, @NonNull Launcher launcher,
+      @NonNull Callback callback, @Nullable ChargeRetryPolicy retryPolicy) {
+    this.posClient = nonNull(posClient, "posClient");
+    this.launcher = nonNull(launcher, "launcher");
+    this.callback = nonNull(callback, "callback");
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Starts the charge right away if no charge is in progress, or after every charge enqueued
+   * before it otherwise. A charge that an interceptor rejects with a
+   * {@link ChargeRejectedException} is passed to {@link Callback#onChargeError} without starting.
+   *
+   * @throws NullPointerException if chargeRequest is null.
+   * @throws android.content.ActivityNotFoundException if Square Point of Sale is not installed.
+   * The charge that could not start is dropped, the other ones stay enqueued.
+   */
+  @MainThread public void enqueue(@NonNull ChargeRequest chargeRequest) {
+    nonNull(chargeRequest, "chargeRequest");
+    pending.add(chargeRequest);
+    if (inFlight == null) {
+      startNext();
+    }
+  }
+
+  /**
+   * Parses the result of the charge in progress, starts the next enqueued charge and then passes
+   * the result to the {@link Callback}. Call this from {@code onActivityResult()} for the request
+   * code that the {@link Launcher} uses. A charge that the {@link ChargeRetryPolicy} retries stays
+   * in progress, and its result is not passed to the {@link Callback}.
+   *
+   * @return {@code false} if no charge was in progress, in which case the result is ignored. This
+   * happens if the queue of a recreated activity was not restored with
+   * {@link #onRestoreInstanceState}.
+   * @throws android.content.ActivityNotFoundException if Square Point of Sale was uninstalled
+   * before the next charge could start. The result is still passed to the {@link Callback}.
+   */
+  @MainThread public boolean onChargeResult(int resultCode, @Nullable Intent data) {
+    ChargeRequest chargeRequest = inFlight;
+    if (chargeRequest == null || scheduledRetry != null) {
+      return false;
+    }
+    ChargeRequest.Success success = null;
+    ChargeRequest.Error error = null;
+    if (data == null) {
+      // This happens if Point of Sale was uninstalled or crashed while we're waiting for a result.
+      error = new ChargeRequest.Error(ChargeRequest.ErrorCode.NO_RESULT,
+          "Square Point of Sale did not return a result.", null);
+    } else if (resultCode == Activity.RESULT_OK) {
+      success = posClient.parseChargeSuccess(data);
+    } else {
+      error = posClient.parseChargeError(data);
+    }
+    if (error != null && retryPolicy != null && retryPolicy.shouldRetry(error, inFlightRetries)) {
+      scheduleRetry(chargeRequest, error);
+      return true;
+    }
+    finish(chargeRequest, success, error);
+    return true;
+  }
+
+  /** @return {@code true} if a charge was started and its result was not handled yet. */
+  @MainThread public boolean isChargeInProgress() {
+    return inFlight != null;
+  }
+
+  /** @return the number of charges waiting for the charge in progress to complete. */
+  @MainThread public int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Cancels the retry waiting for its backoff, if any, starts the next enqueued charge and then
+   * passes the error that the charge last failed with to the {@link Callback}.
+   *
+   * @return {@code true} if a retry was canceled.
+   * @throws android.content.ActivityNotFoundException if Square Point of Sale was uninstalled
+   * before the next charge could start. The error is still passed to the {@link Callback}.
+   */
+  @MainThread public boolean cancelRetry() {
+    Retry retry = scheduledRetry;
+    if (retry == null) {
+      return false;
+    }
+    handler.removeCallbacks(retry);
+    scheduledRetry = null;
+    finish(retry.chargeRequest, null, retry.lastError);
+    return true;
+  }
+
+  /**
+   * Saves the charge in progress, the charge waiting to be retried, if any, and the enqueued
+   * charges to outState. Call this from {@code onSaveInstanceState()}.
+   *
+   * @throws NullPointerException if outState is null.
+   */
+  @MainThread public void onSaveInstanceState(@NonNull Bundle outState) {
+    nonNull(outState, "outState");
+    Bundle state = new Bundle();
+    if (inFlight != null) {
+      state.putBundle(KEY_IN_FLIGHT, writeChargeRequest(inFlight));
+      state.putInt(KEY_RETRIES, inFlightRetries);
+      if (scheduledRetry != null) {
+        state.putBundle(KEY_LAST_ERROR, writeError(scheduledRetry.lastError));
+      }
+    }
+    ArrayList<Bundle> pendingState = new ArrayList<>(pending.size());
+    for (ChargeRequest chargeRequest : pending) {
+      pendingState.add(writeChargeRequest(chargeRequest));
+    }
+    state.putParcelableArrayList(KEY_PENDING, pendingState);
+    outState.putBundle(KEY_STATE, state);
+  }
+
+  /**
+   * Restores the charges saved by {@link #onSaveInstanceState}, so that the result of the charge
+   * in progress is passed to the {@link Callback}, and the enqueued charges start after it. A
+   * charge that was waiting to be retried is retried after a new backoff. Call this from
+   * {@code onCreate()}, before enqueuing charges.
+   *
+   * @param savedInstanceState the state passed to {@code onCreate()}, or null if there is none.
+   * @throws IllegalStateException if a charge was already enqueued.
+   * @throws android.content.ActivityNotFoundException if no charge was in progress and Square
+   * Point of Sale is not installed. The charge that could not start is dropped, the other ones
+   * stay enqueued.
+   */
+  @MainThread public void onRestoreInstanceState(@Nullable Bundle savedInstanceState) {
+    if (inFlight != null || !pending.isEmpty()) {
+      throw new IllegalStateException("onRestoreInstanceState() must be called before enqueue()");
+    }
+    Bundle state = savedInstanceState != null ? savedInstanceState.getBundle(KEY_STATE) : null;
+    if (state == null) {
+      return;
+    }
+    ArrayList<Bundle> pendingState = state.getParcelableArrayList(KEY_PENDING);
+    if (pendingState != null) {
+      for (Bundle chargeState : pendingState) {
+        pending.add(readChargeRequest(chargeState));
+      }
+    }
+    Bundle inFlightState = state.getBundle(KEY_IN_FLIGHT);
+    if (inFlightState == null) {
+      if (!pending.isEmpty()) {
+        startNext();
+      }
+      return;
+    }
+    inFlight = readChargeRequest(inFlightState);
+    inFlightRetries = state.getInt(KEY_RETRIES);
+    Bundle lastErrorState = state.getBundle(KEY_LAST_ERROR);
+    if (lastErrorState == null) {
+      return;
+    }
+    ChargeRequest.Error lastError = readError(lastErrorState);
+    if (retryPolicy == null) {
+      finish(inFlight, null, lastError);
+    } else {
+      scheduleRetry(inFlight, lastError);
+    }
+  }
+
+  /**
+   * Cancels the retry waiting for its backoff, if any, without calling back, so that no charge
+   * starts after the activity is destroyed. The state saved by {@link #onSaveInstanceState} still
+   * has the charge, so a recreated activity retries it. Call this from {@code onDestroy()}, and
+   * {@link #cancelRetry()} first if the activity is finishing and the error matters.
+   */
+  @MainThread public void onDestroy() {
+    if (scheduledRetry != null) {
+      handler.removeCallbacks(scheduledRetry);
+      scheduledRetry = null;
+    }
+  }
+
+  private void finish(ChargeRequest chargeRequest, @Nullable ChargeRequest.Success success,
+      @Nullable ChargeRequest.Error error) {
+    inFlight = null;
+    try {
+      startNext();
+    } finally {
+      if (success != null) {
+        callback.onChargeSuccess(chargeRequest, success);
+      } else {
+        callback.onChargeError(chargeRequest, error);
+      }
+    }
+  }
+
+  private void scheduleRetry(ChargeRequest chargeRequest, ChargeRequest.Error error) {
+    if (handler == null) {
+      handler = new Handler(Looper.getMainLooper());
+    }
+    long delayMillis = retryPolicy.backoffMillis(inFlightRetries);
+    FlightRecorder.shared.record(FlightRecorder.Event.CHARGE_RETRIED, error.code, delayMillis);
+    scheduledRetry = new Retry(chargeRequest, error);
+    handler.postDelayed(scheduledRetry, delayMillis);
+  }
+
+  private void startNext() {
+    ChargeRequest next;
+    while ((next = pending.poll()) != null) {
+      Intent chargeIntent;
+      try {
+        chargeIntent = posClient.createChargeIntent(next);
+      } catch (ChargeRejectedException e) {
+        callback.onChargeError(next, e.error);
+        if (inFlight != null) {
+          // The callback enqueued a charge that started.
+          return;
+        }
+        continue;
+      }
+      launcher.startCharge(chargeIntent);
+      inFlight = next;
+      inFlightRetries = 0;
+      if (retryPolicy != null) {
+        retryPolicy.onCharge();
+      }
+      return;
+    }
+  }
+
+  /** Starts a charge that failed again, with the same request. */
+  private final class Retry implements Runnable {
+    final ChargeRequest chargeRequest;
+    final ChargeRequest.Error lastError;
+
+    Retry(ChargeRequest chargeRequest, ChargeRequest.Error lastError) {
+      this.chargeRequest = chargeRequest;
+      this.lastError = lastError;
+    }
+
+    @Override public void run() {
+      scheduledRetry = null;
+      try {
+        launcher.startCharge(posClient.createChargeIntent(chargeRequest));
+      } catch (ChargeRejectedException e) {
+        finish(chargeRequest, null, e.error);
+        return;
+      } catch (ActivityNotFoundException e) {
+        // Point of Sale was uninstalled during the backoff. The enqueued charges would fail the
+        // same way, and there is no caller to throw to.
+        inFlight = null;
+        callback.onChargeError(chargeRequest, lastError);
+        ChargeRequest next;
+        while (inFlight == null && (next = pending.poll()) != null) {
+          callback.onChargeNotStarted(next, e);
+        }
+        return;
+      }
+      inFlightRetries++;
+    }
+  }
+
+  private static Bundle writeChargeRequest(ChargeRequest chargeRequest) {
+    Bundle state = new Bundle();
+    state.putInt("totalAmount", chargeRequest.totalAmount);
+    state.putString("currencyCode", chargeRequest.currencyCode.name());
+    state.putInt("tenderMask", chargeRequest.tenderMask);
+    state.putLong("autoReturnMillis", chargeRequest.autoReturnMillis);
+    state.putString("note", chargeRequest.note);
+    state.putString("locationId", chargeRequest.locationId);
+    state.putString("customerId", chargeRequest.customerId);
+    state.putString("requestMetadata", chargeRequest.requestMetadata);
+    return state;
+  }
+
+  private static ChargeRequest readChargeRequest(Bundle state) {
+    ChargeRequest.Builder builder = new ChargeRequest.Builder(state.getInt("totalAmount"),
+        CurrencyCode.valueOf(state.getString("currencyCode")));
+    builder.tenderMask = state.getInt("tenderMask") & TenderTypes.ALL;
+    builder.autoReturnMillis = state.getLong("autoReturnMillis");
+    builder.note = state.getString("note");
+    builder.locationId = state.getString("locationId");
+    builder.customerId = state.getString("customerId");
+    builder.requestMetadata = state.getString("requestMetadata");
+    return builder.build();
+  }
+
+  private static Bundle writeError(ChargeRequest.Error error) {
+    Bundle state = new Bundle();
+    state.putString("code", error.code != null ? error.code.name() : null);
+    state.putString("debugDescription", error.debugDescription);
+    state.putString("requestMetadata", error.requestMetadata);
+    return state;
+  }
+
+  private static ChargeRequest.Error readError(Bundle state) {
+    String code = state.getString("code");
+    return new ChargeRequest.Error(code != null ? ChargeRequest.ErrorCode.valueOf(code) : null,
+        state.getString("debugDescription"), state.getString("requestMetadata"));
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import androidx.annotation.NonNull;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Thrown by {@link PosClient#createChargeIntent} when an interceptor, such as a
+ * {@link ChargeCircuitBreaker}, rejects a charge without starting Square Point of Sale. A
+ * {@link ChargeQueue} and a {@link ChargeLauncher} report the error as the result of the charge.
+ */
+public final class ChargeRejectedException extends RuntimeException {
+
+  /** The error that Point of Sale would return, with the metadata of the rejected request. */
+  @NonNull public final ChargeRequest.Error error;
+
+  /**
+   * @throws NullPointerException if error is null.
+   */
+  public ChargeRejectedException(@NonNull ChargeRequest.Error error) {
+    super(nonNull(error, "error").code + ": " + error.debugDescription);
+    this.error = error;
+  }
+}
@@ -19,10 +19,7 @@ package com.squareup.sdk.pos;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.EnumSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -32,7 +29,6 @@ import static com.squareup.sdk.pos.PosApi.EXTRA_TENDER_CASH;
 import static com.squareup.sdk.pos.PosApi.EXTRA_TENDER_OTHER;
 import static com.squareup.sdk.pos.PosApi.EXTRA_TENDER_PAYPAY;
 import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
-import static java.util.Collections.unmodifiableSet;
 
 /**
  * Represents the details of a transaction to initiate with the Point of Sale API.
@@ -68,10 +64,12 @@ public final class ChargeRequest {
   /** @see Builder#customerId(String) */
   @Nullable public final String customerId;
 
+  /** {@link #tenderTypes} as a bitmask, see {@link TenderTypes}. */
+  final int tenderMask;
+
   ChargeRequest(Builder builder) {
-    this.tenderTypes = unmodifiableSet(
-        builder.tenderTypes.isEmpty() ? EnumSet.noneOf(TenderType.class)
-            : EnumSet.copyOf(builder.tenderTypes));
+    this.tenderMask = builder.tenderMask;
+    this.tenderTypes = TenderTypes.set(tenderMask);
     this.totalAmount = builder.totalAmount;
     this.currencyCode = builder.currencyCode;
     this.note = builder.note;
@@ -90,12 +88,30 @@ public final class ChargeRequest {
    * Creates a new {@link Builder} copied from {@link this} transaction, with a different amount.
    */
   public @NonNull Builder newBuilder(int totalAmount, CurrencyCode currencyCode) {
-    return new Builder(totalAmount, currencyCode).restrictTendersTo(tenderTypes)
-        .note(note)
-        .autoReturn(autoReturnMillis, TimeUnit.MILLISECONDS)
-        .enforceBusinessLocation(locationId)
-        .requestMetadata(requestMetadata)
-        .customerId(customerId);
+    Builder builder = new Builder(totalAmount, currencyCode);
+    // This request was validated when it was built, no need to go through the setters again.
+    builder.tenderMask = tenderMask;
+    builder.note = note;
+    builder.autoReturnMillis = autoReturnMillis;
+    builder.locationId = locationId;
+    builder.requestMetadata = requestMetadata;
+    builder.customerId = customerId;
+    return builder;
+  }
+
+  /**
+   * Returns a copy of this request with a different amount and request metadata, or this request
+   * if they are the same.
+   */
+  ChargeRequest withAmountAndMetadata(int totalAmount, @Nullable String requestMetadata) {
+    boolean sameMetadata = requestMetadata != null ? requestMetadata.equals(this.requestMetadata)
+        : this.requestMetadata == null;
+    if (this.totalAmount == totalAmount && sameMetadata) {
+      return this;
+    }
+    Builder builder = newBuilder(totalAmount, currencyCode);
+    builder.requestMetadata = requestMetadata;
+    return builder.build();
   }
 
   @Override public boolean equals(Object o) {
@@ -112,7 +128,7 @@ public final class ChargeRequest {
     if (autoReturnMillis != that.autoReturnMillis) {
       return false;
     }
-    if (!tenderTypes.equals(that.tenderTypes)) {
+    if (tenderMask != that.tenderMask) {
       return false;
     }
     if (currencyCode != that.currencyCode) {
@@ -135,7 +151,7 @@ public final class ChargeRequest {
   }
 
   @Override public int hashCode() {
-    int result = tenderTypes.hashCode();
+    int result = tenderMask;
     result = 31 * result + totalAmount;
     result = 31 * result + currencyCode.hashCode();
     result = 31 * result + (note != null ? note.hashCode() : 0);
@@ -146,17 +162,26 @@ public final class ChargeRequest {
     return result;
   }
 
-  /** A flexible builder to create a {@link ChargeRequest}. */
+  /**
+   * A flexible builder to create a {@link ChargeRequest}. The builder validates its input as it
+   * is set and throws on the first invalid value, unless it was created with
+   * {@link #lenient(int, CurrencyCode)}.
+   */
   public static final class Builder {
 
-    final Set<TenderType> tenderTypes;
+    int tenderMask;
     final int totalAmount;
-    @NonNull final CurrencyCode currencyCode;
+    /** Only null in a lenient builder, which then has a violation. */
+    @Nullable final CurrencyCode currencyCode;
     @Nullable String note;
     long autoReturnMillis;
     @Nullable String locationId;
     @Nullable String requestMetadata;
     @Nullable String customerId;
+    /** Whether invalid input is recorded in {@link #violations} instead of thrown. */
+    private final boolean lenient;
+    /** The {@link Violation violations} of the current input, as a bitmask. */
+    private int violations;
 
     /**
      * @param totalAmount Amount to charge. Point of Sale might add taxes and / or a tip on top,
@@ -170,12 +195,31 @@ public final class ChargeRequest {
      * @throws NullPointerException if currencyCode is null.
      */
     public Builder(int totalAmount, @NonNull CurrencyCode currencyCode) {
-      if (totalAmount < 0) {
+      this(totalAmount, currencyCode, false);
+    }
+
+    /**
+     * Creates a builder that records invalid input instead of throwing, for bulk input such as
+     * scanned or keyed charges. {@link #tryBuild()} returns every rule that the input violates,
+     * without the cost of an exception.
+     *
+     * @see #Builder(int, CurrencyCode)
+     */
+    public static @NonNull Builder lenient(int totalAmount, @Nullable CurrencyCode currencyCode) {
+      return new Builder(totalAmount, currencyCode, true);
+    }
+
+    private Builder(int totalAmount, CurrencyCode currencyCode, boolean lenient) {
+      this.lenient = lenient;
+      if (totalAmount < 0 && !reject(Violation.NEGATIVE_TOTAL_AMOUNT)) {
         throw new IllegalArgumentException("totalAmount must be non-negative");
       }
       this.totalAmount = totalAmount;
-      this.currencyCode = nonNull(currencyCode, "currencyCode");
-      tenderTypes = EnumSet.allOf(TenderType.class);
+      if (currencyCode == null && !reject(Violation.MISSING_CURRENCY_CODE)) {
+        throw new NullPointerException("currencyCode must not be null");
+      }
+      this.currencyCode = currencyCode;
+      tenderMask = TenderTypes.ALL;
       autoReturnMillis = PosApi.AUTO_RETURN_NO_TIMEOUT;
     }
 
@@ -191,23 +235,35 @@ public final class ChargeRequest {
      */
     public @NonNull ChargeRequest.Builder restrictTendersTo(
         @NonNull Collection<TenderType> tenderTypes) {
+      if (tenderTypes == null && reject(Violation.NO_TENDER_TYPES)) {
+        return this;
+      }
       nonNull(tenderTypes, "tenderTypes");
       if (tenderTypes.isEmpty()) {
+        if (reject(Violation.NO_TENDER_TYPES)) {
+          return this;
+        }
         throw new IllegalArgumentException("Please restrict to at least one TenderType.");
       }
-      this.tenderTypes.clear();
-      this.tenderTypes.addAll(tenderTypes);
+      tenderMask = TenderTypes.maskOf(tenderTypes);
+      accept(Violation.NO_TENDER_TYPES);
       return this;
     }
 
     /** @see #restrictTendersTo(Collection) */
     public @NonNull ChargeRequest.Builder restrictTendersTo(@NonNull TenderType... tenderTypes) {
+      if (tenderTypes == null && reject(Violation.NO_TENDER_TYPES)) {
+        return this;
+      }
       nonNull(tenderTypes, "tenderTypes");
       if (tenderTypes.length == 0) {
+        if (reject(Violation.NO_TENDER_TYPES)) {
+          return this;
+        }
         throw new IllegalArgumentException("Please restrict to at least one TenderType.");
       }
-      this.tenderTypes.clear();
-      Collections.addAll(this.tenderTypes, tenderTypes);
+      tenderMask = TenderTypes.maskOf(tenderTypes);
+      accept(Violation.NO_TENDER_TYPES);
       return this;
     }
 
@@ -225,9 +281,13 @@ public final class ChargeRequest {
      */
     public @NonNull ChargeRequest.Builder note(@Nullable String note) {
       if (note != null && note.length() > PosApi.NOTE_MAX_LENGTH) {
+        if (reject(Violation.NOTE_TOO_LONG)) {
+          return this;
+        }
         throw new IllegalArgumentException(
             "note character length must be less than " + PosApi.NOTE_MAX_LENGTH);
       }
+      accept(Violation.NOTE_TOO_LONG);
       this.note = note;
       return this;
     }
@@ -249,19 +309,29 @@ public final class ChargeRequest {
     public @NonNull ChargeRequest.Builder autoReturn(long timeout, TimeUnit unit) {
       long autoReturnMillis;
       if (timeout != PosApi.AUTO_RETURN_NO_TIMEOUT) {
-        autoReturnMillis = unit.toMillis(timeout);
+        if (unit == null && reject(Violation.INVALID_AUTO_RETURN)) {
+          return this;
+        }
         nonNull(unit, "unit");
+        autoReturnMillis = unit.toMillis(timeout);
         if (autoReturnMillis < PosApi.AUTO_RETURN_TIMEOUT_MIN_MILLIS) {
+          if (reject(Violation.INVALID_AUTO_RETURN)) {
+            return this;
+          }
           throw new IllegalArgumentException(
               "timeout should be at least " + PosApi.AUTO_RETURN_TIMEOUT_MIN_MILLIS);
         }
         if (autoReturnMillis > PosApi.AUTO_RETURN_TIMEOUT_MAX_MILLIS) {
+          if (reject(Violation.INVALID_AUTO_RETURN)) {
+            return this;
+          }
           throw new IllegalArgumentException(
               "timeout should be less than " + PosApi.AUTO_RETURN_TIMEOUT_MAX_MILLIS);
         }
       } else {
         autoReturnMillis = PosApi.AUTO_RETURN_NO_TIMEOUT;
       }
+      accept(Violation.INVALID_AUTO_RETURN);
       this.autoReturnMillis = autoReturnMillis;
       return this;
     }
@@ -310,10 +380,122 @@ public final class ChargeRequest {
 
     /**
      * Constructs a {@link ChargeRequest} from the current state of this builder.
+     *
+     * @throws IllegalArgumentException if this is a lenient builder and its input is invalid.
      */
     public @NonNull ChargeRequest build() {
+      if (violations != 0) {
+        throw new IllegalArgumentException(
+            "Invalid charge request: " + ValidationResult.invalid(violations).violations());
+      }
       return new ChargeRequest(this);
     }
+
+    /**
+     * Constructs a {@link ChargeRequest} from the current state of this builder if it is valid.
+     * Only a {@link #lenient(int, CurrencyCode) lenient} builder can hold invalid input. Rejecting
+     * invalid input doesn't allocate: the results of invalid input are shared.
+     *
+     * @return the request, or every rule that the input violates.
+     */
+    public @NonNull ValidationResult tryBuild() {
+      if (violations != 0) {
+        return ValidationResult.invalid(violations);
+      }
+      return new ValidationResult(new ChargeRequest(this), 0);
+    }
+
+    /**
+     * Records a violation in a lenient builder.
+     *
+     * @return {@code false} if this builder is not lenient and must throw instead.
+     */
+    private boolean reject(Violation violation) {
+      if (!lenient) {
+        return false;
+      }
+      violations |= violation.mask;
+      return true;
+    }
+
+    /** Clears a violation that input set before was recorded with. */
+    private void accept(Violation violation) {
+      violations &= ~violation.mask;
+    }
+  }
+
+  /** A rule of {@link Builder} that the input of a lenient builder violates. */
+  public enum Violation {
+
+    /** The total amount is negative. */
+    NEGATIVE_TOTAL_AMOUNT,
+
+    /** The currency code is null. */
+    MISSING_CURRENCY_CODE,
+
+    /** The tender types are null or empty. */
+    NO_TENDER_TYPES,
+
+    /** The note is longer than {@link PosApi#NOTE_MAX_LENGTH}. */
+    NOTE_TOO_LONG,
+
+    /**
+     * The auto return timeout has no unit, or is not between
+     * {@link PosApi#AUTO_RETURN_TIMEOUT_MIN_MILLIS} and
+     * {@link PosApi#AUTO_RETURN_TIMEOUT_MAX_MILLIS}.
+     */
+    INVALID_AUTO_RETURN;
+
+    final int mask = 1 << ordinal();
+  }
+
+  /** The outcome of {@link Builder#tryBuild()}: a valid request, or the rules it violates. */
+  public static final class ValidationResult {
+
+    /** One shared result for each combination of violations, indexed by violation mask. */
+    private static final ValidationResult[] INVALID =
+        new ValidationResult[1 << Violation.values().length];
+
+    static {
+      for (int violations = 1; violations < INVALID.length; violations++) {
+        INVALID[violations] = new ValidationResult(null, violations);
+      }
+    }
+
+    static ValidationResult invalid(int violations) {
+      return INVALID[violations];
+    }
+
+    /** The request, or {@code null} if the input was invalid. */
+    @Nullable public final ChargeRequest chargeRequest;
+
+    private final int violations;
+
+    ValidationResult(@Nullable ChargeRequest chargeRequest, int violations) {
+      this.chargeRequest = chargeRequest;
+      this.violations = violations;
+    }
+
+    /** @return {@code true} if {@link #chargeRequest} was built. */
+    public boolean isValid() {
+      return violations == 0;
+    }
+
+    /** @return {@code true} if the input violates the rule. */
+    public boolean hasViolation(@NonNull Violation violation) {
+      return (violations & violation.mask) != 0;
+    }
+
+    /** @return a new set of every rule that the input violates, empty if it is valid. */
+    public @NonNull Set<Violation> violations() {
+      Set<Violation> set = EnumSet.noneOf(Violation.class);
+      for (Violation violation : Violation.values()) {
+        if (hasViolation(violation)) {
+          set.add(violation);
+        }
+      }
+      return set;
+    }
   }
 
   /**
@@ -394,32 +576,35 @@ public final class ChargeRequest {
   public enum ErrorCode {
 
     /** The Point of Sale API is not currently available. */
-    DISABLED(PosApi.ERROR_DISABLED),
+    DISABLED(PosApi.ERROR_DISABLED, ErrorCategory.UNAVAILABLE),
 
     /** The merchant account does not support Customer Management. */
-    CUSTOMER_MANAGEMENT_NOT_SUPPORTED(PosApi.ERROR_CUSTOMER_MANAGEMENT_NOT_SUPPORTED),
+    CUSTOMER_MANAGEMENT_NOT_SUPPORTED(PosApi.ERROR_CUSTOMER_MANAGEMENT_NOT_SUPPORTED,
+        ErrorCategory.PERMANENT),
 
     /**
      * The Customer Id is invalid. This could happen if the account logged in to Square Point of
      * Sale is different from the account from which the customer information was downloaded.
      */
-    ERROR_INVALID_CUSTOMER_ID(PosApi.ERROR_INVALID_CUSTOMER_ID),
+    ERROR_INVALID_CUSTOMER_ID(PosApi.ERROR_INVALID_CUSTOMER_ID, ErrorCategory.PERMANENT),
 
     /** @deprecated Starting with SDK 1.1, Square Point of Sale supports Square Prepaid Gift Cards. */
-    @Deprecated GIFT_CARDS_NOT_SUPPORTED(PosApi.ERROR_GIFT_CARDS_NOT_SUPPORTED),
+    @Deprecated GIFT_CARDS_NOT_SUPPORTED(PosApi.ERROR_GIFT_CARDS_NOT_SUPPORTED,
+        ErrorCategory.PERMANENT),
 
     /**
      * The provided location ID does not correspond to the location currently logged in to Square
      * Point of Sale.
      */
-    ILLEGAL_LOCATION_ID(PosApi.ERROR_ILLEGAL_LOCATION_ID),
+    ILLEGAL_LOCATION_ID(PosApi.ERROR_ILLEGAL_LOCATION_ID, ErrorCategory.PERMANENT),
 
     /**
      * @deprecated Starting with SDK 1.1, Square Point of Sale supports split tender transactions,
      * so
      * a transaction can be completed as a split tender if a card has insufficient balance.
      */
-    @Deprecated INSUFFICIENT_CARD_BALANCE(PosApi.ERROR_INSUFFICIENT_CARD_BALANCE),
+    @Deprecated INSUFFICIENT_CARD_BALANCE(PosApi.ERROR_INSUFFICIENT_CARD_BALANCE,
+        ErrorCategory.PERMANENT),
 
     /**
      * The information provided in the transaction request was invalid (a required field might have
@@ -427,79 +612,155 @@ public final class ChargeRequest {
      *
      * {@link Error#debugDescription} provides additional details.
      */
-    INVALID_REQUEST(PosApi.ERROR_INVALID_REQUEST),
+    INVALID_REQUEST(PosApi.ERROR_INVALID_REQUEST, ErrorCategory.PERMANENT),
 
     /** Employee management is enabled but no employee is logged in to Square Point of Sale. */
-    NO_EMPLOYEE_LOGGED_IN(PosApi.ERROR_NO_EMPLOYEE_LOGGED_IN),
+    NO_EMPLOYEE_LOGGED_IN(PosApi.ERROR_NO_EMPLOYEE_LOGGED_IN, ErrorCategory.USER_ACTION),
 
     /**
      * Square Point of Sale was unable to validate the Point of Sale API request because the Android
      * device did not have an active network connection.
      */
-    NO_NETWORK(PosApi.ERROR_NO_NETWORK),
+    NO_NETWORK(PosApi.ERROR_NO_NETWORK, ErrorCategory.TRANSIENT),
 
     /**
      * Square Point of Sale did not return a transaction result. In only this case, any value that
      * you provided in {@link Builder#requestMetadata(String)} will not be returned.
      */
-    NO_RESULT(PosApi.ERROR_NO_RESULT),
+    NO_RESULT(PosApi.ERROR_NO_RESULT, ErrorCategory.TRANSIENT),
 
     /**
      * Another Square Point of Sale transaction is already in progress. The merchant should open
      * Square Point of Sale to complete or cancel the current transaction before attempting to
      * initiate a new one.
      */
-    TRANSACTION_ALREADY_IN_PROGRESS(PosApi.ERROR_TRANSACTION_ALREADY_IN_PROGRESS),
+    TRANSACTION_ALREADY_IN_PROGRESS(PosApi.ERROR_TRANSACTION_ALREADY_IN_PROGRESS,
+        ErrorCategory.USER_ACTION),
 
     /** The merchant canceled the transaction. */
-    TRANSACTION_CANCELED(PosApi.ERROR_TRANSACTION_CANCELED),
+    TRANSACTION_CANCELED(PosApi.ERROR_TRANSACTION_CANCELED, ErrorCategory.CANCELED),
 
     /**
      * @deprecated Starting with SDK 1.2, the OAuth authorization flow is no longer required for
      * Point of Sale API, and this error will never be returned.
      */
-    @Deprecated UNAUTHORIZED_CLIENT_ID(PosApi.ERROR_UNAUTHORIZED_CLIENT_ID),
+    @Deprecated UNAUTHORIZED_CLIENT_ID(PosApi.ERROR_UNAUTHORIZED_CLIENT_ID,
+        ErrorCategory.PERMANENT),
 
     /**
      * An unexpected error occurred. Please contact <a href="mailto:developers@squareup.com">developers@squareup.com</a>
      * and include any code snippets and descriptions of your use case that might help diagnose the
      * issue.
      */
-    UNEXPECTED(PosApi.ERROR_UNEXPECTED),
+    UNEXPECTED(PosApi.ERROR_UNEXPECTED, ErrorCategory.TRANSIENT),
 
     /**
      * The installed version of Square Point of Sale doesn't support this version of the Point of
      * Sale SDK.
      * This is probably because the installed version of Square Point of Sale is out of date.
      */
-    UNSUPPORTED_API_VERSION(PosApi.ERROR_UNSUPPORTED_API_VERSION),
+    UNSUPPORTED_API_VERSION(PosApi.ERROR_UNSUPPORTED_API_VERSION, ErrorCategory.UNAVAILABLE),
 
     /**
      * The merchant tried to process the transaction with a credit card, but the merchant's Square
      * account has not yet been activated for card processing.
      */
-    USER_NOT_ACTIVATED(PosApi.ERROR_USER_NOT_ACTIVATED),
+    USER_NOT_ACTIVATED(PosApi.ERROR_USER_NOT_ACTIVATED, ErrorCategory.UNAVAILABLE),
 
     /** No user is currently logged in to Square Point of Sale. */
-    USER_NOT_LOGGED_IN(PosApi.ERROR_USER_NOT_LOGGED_IN);
+    USER_NOT_LOGGED_IN(PosApi.ERROR_USER_NOT_LOGGED_IN, ErrorCategory.UNAVAILABLE);
 
-    private static final Map<String, ErrorCode> errorCodeByApiString = new LinkedHashMap<>();
+    final String apiCode;
 
-    private final String apiCode;
+    /** What it takes for a charge that failed with this error to succeed. */
+    @NonNull public final ErrorCategory category;
 
-    ErrorCode(String apiCode) {
+    ErrorCode(String apiCode, ErrorCategory category) {
       this.apiCode = apiCode;
+      this.category = category;
     }
 
-    static {
-      for (ErrorCode errorCode : ErrorCode.values()) {
-        errorCodeByApiString.put(errorCode.apiCode, errorCode);
+    /**
+     * Switches on the whole API code, which hashes it once and allocates nothing.
+     * {@code ChargeRequestTest} checks that every error code can be parsed.
+     */
+    static ErrorCode parse(String apiErrorCode) {
+      if (apiErrorCode == null) {
+        return null;
+      }
+      switch (apiErrorCode) {
+        case PosApi.ERROR_DISABLED:
+          return DISABLED;
+        case PosApi.ERROR_CUSTOMER_MANAGEMENT_NOT_SUPPORTED:
+          return CUSTOMER_MANAGEMENT_NOT_SUPPORTED;
+        case PosApi.ERROR_INVALID_CUSTOMER_ID:
+          return ERROR_INVALID_CUSTOMER_ID;
+        case PosApi.ERROR_GIFT_CARDS_NOT_SUPPORTED:
+          return GIFT_CARDS_NOT_SUPPORTED;
+        case PosApi.ERROR_ILLEGAL_LOCATION_ID:
+          return ILLEGAL_LOCATION_ID;
+        case PosApi.ERROR_INSUFFICIENT_CARD_BALANCE:
+          return INSUFFICIENT_CARD_BALANCE;
+        case PosApi.ERROR_INVALID_REQUEST:
+          return INVALID_REQUEST;
+        case PosApi.ERROR_NO_EMPLOYEE_LOGGED_IN:
+          return NO_EMPLOYEE_LOGGED_IN;
+        case PosApi.ERROR_NO_NETWORK:
+          return NO_NETWORK;
+        case PosApi.ERROR_NO_RESULT:
+          return NO_RESULT;
+        case PosApi.ERROR_TRANSACTION_ALREADY_IN_PROGRESS:
+          return TRANSACTION_ALREADY_IN_PROGRESS;
+        case PosApi.ERROR_TRANSACTION_CANCELED:
+          return TRANSACTION_CANCELED;
+        case PosApi.ERROR_UNAUTHORIZED_CLIENT_ID:
+          return UNAUTHORIZED_CLIENT_ID;
+        case PosApi.ERROR_UNEXPECTED:
+          return UNEXPECTED;
+        case PosApi.ERROR_UNSUPPORTED_API_VERSION:
+          return UNSUPPORTED_API_VERSION;
+        case PosApi.ERROR_USER_NOT_ACTIVATED:
+          return USER_NOT_ACTIVATED;
+        case PosApi.ERROR_USER_NOT_LOGGED_IN:
+          return USER_NOT_LOGGED_IN;
+        default:
+          return null;
       }
     }
+  }
 
-    static ErrorCode parse(String apiErrorCode) {
-      return errorCodeByApiString.get(apiErrorCode);
-    }
+  /**
+   * Groups the {@link ErrorCode error codes} by what it takes for a failed charge to succeed, so
+   * that apps and {@link ChargeRetryPolicy} can handle every code of a category the same way.
+   */
+  public enum ErrorCategory {
+
+    /**
+     * Sending the same request again may succeed: {@link ErrorCode#NO_NETWORK},
+     * {@link ErrorCode#NO_RESULT} and {@link ErrorCode#UNEXPECTED}.
+     */
+    TRANSIENT,
+
+    /**
+     * Someone must act in Square Point of Sale before a charge can succeed:
+     * {@link ErrorCode#TRANSACTION_ALREADY_IN_PROGRESS} and
+     * {@link ErrorCode#NO_EMPLOYEE_LOGGED_IN}.
+     */
+    USER_ACTION,
+
+    /** The merchant chose not to complete the charge: {@link ErrorCode#TRANSACTION_CANCELED}. */
+    CANCELED,
+
+    /**
+     * Every charge fails until the merchant logs in, activates or updates Square Point of Sale, or
+     * until the Point of Sale API is enabled again: {@link ErrorCode#DISABLED},
+     * {@link ErrorCode#USER_NOT_LOGGED_IN}, {@link ErrorCode#USER_NOT_ACTIVATED} and
+     * {@link ErrorCode#UNSUPPORTED_API_VERSION}.
+     */
+    UNAVAILABLE,
+
+    /** The same request always fails, for instance because it is invalid for this merchant. */
+    PERMANENT
   }
 
   /**
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import androidx.annotation.NonNull;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Decides whether a {@link ChargeQueue} starts a failed charge again, and how long it waits first.
+ * Only charges that failed with a {@link ChargeRequest.ErrorCategory#TRANSIENT transient} error
+ * are retried, with the same {@link ChargeRequest}. Charges that failed with an error code this
+ * SDK doesn't know are not retried:
+ *
+ * <pre class="code"><code class="java">
+ * ChargeRetryPolicy retryPolicy = new ChargeRetryPolicy.Builder()
+ *     .maxRetries(2)
+ *     .backoff(1, 10, TimeUnit.SECONDS)
+ *     .build();
+ * chargeQueue = new ChargeQueue(posClient, launcher, callback, retryPolicy);
+ * </code></pre>
+ *
+ * <p>The delay before retry {@code n} is picked uniformly at random between zero and
+ * {@code initialBackoff * 2^n}, capped at {@code maxBackoff}, so that registers that failed
+ * together don't retry together. A retry budget keeps retries from multiplying the load when
+ * Point of Sale keeps failing: each charge that is not a retry earns a fraction of a retry, the
+ * budget holds a bounded number of retries, and a charge is not retried once the budget is spent.
+ *
+ * <p>A charge that failed with {@link ChargeRequest.ErrorCode#NO_RESULT} may have completed
+ * before Point of Sale stopped, so starting it again could charge the customer twice. These
+ * charges are not retried unless {@link Builder#retryNoResult(boolean)} is set. Record charges
+ * with a {@link ChargeLedger} to reconcile them instead.
+ *
+ * <p>A policy can be shared by several queues, and is thread safe.
+ */
+public final class ChargeRetryPolicy {
+
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final float budgetCapacity;
+  private final float retriesPerCharge;
+  private final boolean retryNoResult;
+  private final Random random = new Random();
+  /** Retries left in the budget. Guarded by this. */
+  private float budget;
+
+  ChargeRetryPolicy(Builder builder) {
+    maxRetries = builder.maxRetries;
+    initialBackoffMillis = builder.initialBackoffMillis;
+    maxBackoffMillis = builder.maxBackoffMillis;
+    budgetCapacity = builder.budgetCapacity;
+    retriesPerCharge = builder.retriesPerCharge;
+    retryNoResult = builder.retryNoResult;
+    budget = budgetCapacity;
+  }
+
+  /** Adds the retries that a charge that is not a retry earns to the budget. */
+  synchronized void onCharge() {
+    budget = Math.min(budgetCapacity, budget + retriesPerCharge);
+  }
+
+  /**
+   * @param retries how many times the charge that failed was already retried.
+   * @return {@code true}, after taking a retry from the budget, if the charge should be retried.
+   */
+  synchronized boolean shouldRetry(@NonNull ChargeRequest.Error error, int retries) {
+    // The code is null when Point of Sale returned one this SDK doesn't know.
+    if (error.code == null
+        || error.code.category != ChargeRequest.ErrorCategory.TRANSIENT
+        || (error.code == ChargeRequest.ErrorCode.NO_RESULT && !retryNoResult)
+        || retries >= maxRetries
+        || budget < 1) {
+      return false;
+    }
+    budget -= 1;
+    return true;
+  }
+
+  /**
+   * @param retries how many times the charge was already retried.
+   * @return how long to wait before retrying the charge, in milliseconds.
+   */
+  long backoffMillis(int retries) {
+    long ceilingMillis = maxBackoffMillis;
+    if (retries < Long.numberOfLeadingZeros(initialBackoffMillis) - 1) {
+      ceilingMillis = Math.min(maxBackoffMillis, initialBackoffMillis << retries);
+    }
+    return (long) (random.nextDouble() * ceilingMillis);
+  }
+
+  /** Builds a {@link ChargeRetryPolicy}. */
+  public static final class Builder {
+
+    int maxRetries = 2;
+    long initialBackoffMillis = 1_000;
+    long maxBackoffMillis = 10_000;
+    float budgetCapacity = 10;
+    float retriesPerCharge = 0.2f;
+    boolean retryNoResult;
+
+    /**
+     * How many times a charge is retried at most. Defaults to 2.
+     *
+     * @throws IllegalArgumentException if maxRetries is negative.
+     */
+    @NonNull public Builder maxRetries(int maxRetries) {
+      if (maxRetries < 0) {
+        throw new IllegalArgumentException("maxRetries must be non-negative");
+      }
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * The delay before the first retry is at most initialBackoff, and the ceiling doubles with
+     * each retry up to maxBackoff. Defaults to 1 and 10 seconds.
+     *
+     * @throws NullPointerException if unit is null.
+     * @throws IllegalArgumentException if initialBackoff is negative or greater than maxBackoff.
+     */
+    @NonNull public Builder backoff(long initialBackoff, long maxBackoff, @NonNull TimeUnit unit) {
+      nonNull(unit, "unit");
+      if (initialBackoff < 0 || initialBackoff > maxBackoff) {
+        throw new IllegalArgumentException(
+            "initialBackoff must be non-negative and not greater than maxBackoff");
+      }
+      initialBackoffMillis = unit.toMillis(initialBackoff);
+      maxBackoffMillis = unit.toMillis(maxBackoff);
+      return this;
+    }
+
+    /**
+     * Bounds how many retries the policy allows, across every charge that uses it. The budget
+     * starts full with capacity retries, and each charge that is not a retry adds
+     * retriesPerCharge to it. Defaults to 10 retries, and 0.2 retries per charge.
+     *
+     * @throws IllegalArgumentException if capacity is less than 1 or retriesPerCharge is negative.
+     */
+    @NonNull public Builder retryBudget(int capacity, float retriesPerCharge) {
+      if (capacity < 1) {
+        throw new IllegalArgumentException("capacity must be at least 1");
+      }
+      if (!(retriesPerCharge >= 0)) {
+        throw new IllegalArgumentException("retriesPerCharge must be non-negative");
+      }
+      budgetCapacity = capacity;
+      this.retriesPerCharge = retriesPerCharge;
+      return this;
+    }
+
+    /**
+     * Whether charges that failed with {@link ChargeRequest.ErrorCode#NO_RESULT} are retried.
+     * Point of Sale may have completed such a charge before it stopped, so only set this if the
+     * customer being charged twice is acceptable or checked for. Defaults to {@code false}.
+     */
+    @NonNull public Builder retryNoResult(boolean retryNoResult) {
+      this.retryNoResult = retryNoResult;
+      return this;
+    }
+
+    @NonNull public ChargeRetryPolicy build() {
+      return new ChargeRetryPolicy(this);
+    }
+  }
+}
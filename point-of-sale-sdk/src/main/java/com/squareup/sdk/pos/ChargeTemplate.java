@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import androidx.annotation.NonNull;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * A {@link ChargeRequest} to reuse for many charges that only differ by amount and request
+ * metadata, such as the charges of a quick service counter. The request is validated once and
+ * its intent extras are built once. Pass the template to
+ * {@link PosClient#createChargeIntent(ChargeTemplate, int, String)} to create each charge intent.
+ *
+ * <pre class="code"><code class="java">
+ * ChargeTemplate counterCharge = new ChargeTemplate(new ChargeRequest.Builder(0, CurrencyCode.USD)
+ *   .note("Counter 2")
+ *   .enforceBusinessLocation(locationId)
+ *   .autoReturn(4, TimeUnit.SECONDS)
+ *   .build());
+ *
+ * Intent chargeIntent = posClient.createChargeIntent(counterCharge, 550, "#329");
+ * </code></pre>
+ */
+public final class ChargeTemplate {
+
+  /**
+   * The request this template was created from. Its {@link ChargeRequest#totalAmount} and
+   * {@link ChargeRequest#requestMetadata} are not used.
+   */
+  @NonNull public final ChargeRequest chargeRequest;
+
+  /** Holds the extras of every field of {@link #chargeRequest} but the amount and metadata. */
+  final Intent requestExtras;
+
+  /**
+   * @throws NullPointerException if chargeRequest is null.
+   */
+  public ChargeTemplate(@NonNull ChargeRequest chargeRequest) {
+    this.chargeRequest = nonNull(chargeRequest, "chargeRequest");
+    requestExtras = new Intent();
+    RealPosClient.putRequestExtras(requestExtras, chargeRequest);
+  }
+}
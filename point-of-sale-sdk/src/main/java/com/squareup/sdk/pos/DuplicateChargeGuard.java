@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Remembers the future of each charge started with an idempotency key while it is in progress,
+ * and for a time window after it succeeded, so that the same charge started again, with an equal
+ * request and the same key, gets the result of the first one instead of charging twice. A charge
+ * that fails is forgotten right away, so that it can be started again.
+ */
+final class DuplicateChargeGuard {
+
+  private static final long IN_PROGRESS = Long.MAX_VALUE;
+
+  private final long windowMillis;
+  /** Guarded by this. */
+  private final Map<Key, Entry> entries = new HashMap<>();
+
+  DuplicateChargeGuard(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * @return the future of the charge with an equal request and the same idempotency key, if it
+   * is in progress or succeeded less than the window ago, or {@code null}.
+   */
+  @Nullable synchronized CompletableFuture<ChargeRequest.Success> find(
+      ChargeRequest chargeRequest, String idempotencyKey) {
+    evictExpired(SystemClock.elapsedRealtime());
+    Entry entry = entries.get(new Key(chargeRequest, idempotencyKey));
+    return entry != null ? entry.future : null;
+  }
+
+  /** Remembers future until it fails, or until the window elapsed after it succeeded. */
+  void add(ChargeRequest chargeRequest, String idempotencyKey,
+      CompletableFuture<ChargeRequest.Success> future) {
+    final Key key = new Key(chargeRequest, idempotencyKey);
+    final Entry entry = new Entry(future);
+    synchronized (this) {
+      entries.put(key, entry);
+    }
+    future.whenComplete(new BiConsumer<ChargeRequest.Success, Throwable>() {
+      @Override public void accept(ChargeRequest.Success success, Throwable error) {
+        onComplete(key, entry, error == null);
+      }
+    });
+  }
+
+  private synchronized void onComplete(Key key, Entry entry, boolean succeeded) {
+    if (entries.get(key) != entry) {
+      return;
+    }
+    if (succeeded) {
+      entry.succeededAtMillis = SystemClock.elapsedRealtime();
+    } else {
+      entries.remove(key);
+    }
+  }
+
+  private void evictExpired(long nowMillis) {
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      long succeededAtMillis = iterator.next().succeededAtMillis;
+      if (succeededAtMillis != IN_PROGRESS && nowMillis - succeededAtMillis >= windowMillis) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static final class Key {
+    final ChargeRequest chargeRequest;
+    final String idempotencyKey;
+
+    Key(ChargeRequest chargeRequest, String idempotencyKey) {
+      this.chargeRequest = chargeRequest;
+      this.idempotencyKey = idempotencyKey;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return idempotencyKey.equals(that.idempotencyKey)
+          && chargeRequest.equals(that.chargeRequest);
+    }
+
+    @Override public int hashCode() {
+      return 31 * chargeRequest.hashCode() + idempotencyKey.hashCode();
+    }
+  }
+
+  private static final class Entry {
+    final CompletableFuture<ChargeRequest.Success> future;
+    /** Guarded by the guard. */
+    long succeededAtMillis = IN_PROGRESS;
+
+    Entry(CompletableFuture<ChargeRequest.Success> future) {
+      this.future = future;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An immutable hashed set of certificate fingerprints. Fingerprints are decoded once, and each
+ * thread digests certificates with its own {@link MessageDigest} and output buffer, so matching a
+ * certificate does not allocate.
+ */
+final class FingerprintSet {
+
+  private final String algorithm;
+  private final int fingerprintLength;
+  /** Open addressing table, at most half full so that every probe sequence hits a null slot. */
+  private final byte[][] table;
+  private final ThreadLocal<Digest> digests = new ThreadLocal<Digest>() {
+    @Override protected Digest initialValue() {
+      return new Digest(algorithm, fingerprintLength);
+    }
+  };
+
+  /**
+   * @param algorithm the {@link MessageDigest} algorithm the fingerprints were computed with.
+   * @param fingerprints colon separated hex fingerprints, such as "EA:54:A3:...".
+   */
+  FingerprintSet(String algorithm, String... fingerprints) {
+    if (fingerprints.length == 0) {
+      throw new IllegalArgumentException("fingerprints must not be empty");
+    }
+    this.algorithm = algorithm;
+    int size = 2;
+    while (size < fingerprints.length * 2) {
+      size <<= 1;
+    }
+    table = new byte[size][];
+    int length = -1;
+    for (String fingerprint : fingerprints) {
+      byte[] bytes = PosSdkHelper.hexStringToBytes(fingerprint);
+      if (length != -1 && bytes.length != length) {
+        throw new IllegalArgumentException("All fingerprints must have the same length");
+      }
+      length = bytes.length;
+      int slot = hash(bytes) & (size - 1);
+      while (table[slot] != null) {
+        slot = (slot + 1) & (size - 1);
+      }
+      table[slot] = bytes;
+    }
+    fingerprintLength = length;
+  }
+
+  /** @return {@code true} if the fingerprint of the encoded certificate is in this set. */
+  boolean matches(byte[] encodedCertificate) {
+    return contains(digests.get().fingerprint(encodedCertificate));
+  }
+
+  /** @return {@code true} if the raw fingerprint is in this set. */
+  boolean contains(byte[] fingerprint) {
+    if (fingerprint.length != fingerprintLength) {
+      return false;
+    }
+    int mask = table.length - 1;
+    for (int slot = hash(fingerprint) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+      if (MessageDigest.isEqual(table[slot], fingerprint)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Digests are uniformly distributed, so their leading bytes make a good hash. */
+  private static int hash(byte[] fingerprint) {
+    return (fingerprint[0] & 0xff) << 24
+        | (fingerprint[1] & 0xff) << 16
+        | (fingerprint[2] & 0xff) << 8
+        | (fingerprint[3] & 0xff);
+  }
+
+  /** A thread confined digest that writes into a reused output buffer. */
+  private static final class Digest {
+    private final MessageDigest messageDigest;
+    private final byte[] output;
+
+    Digest(String algorithm, int length) {
+      try {
+        messageDigest = MessageDigest.getInstance(algorithm);
+      } catch (NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+      output = new byte[length];
+    }
+
+    byte[] fingerprint(byte[] input) {
+      messageDigest.update(input);
+      try {
+        messageDigest.digest(output, 0, output.length);
+      } catch (DigestException e) {
+        throw new AssertionError(e);
+      }
+      return output;
+    }
+  }
+}
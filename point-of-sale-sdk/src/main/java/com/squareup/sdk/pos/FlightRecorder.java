@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import androidx.annotation.Nullable;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size ring buffer of the most recent SDK events, for bug reports from devices that can't
+ * be debugged. Recording is lock free and does not allocate: each event is a timestamp, a type, a
+ * subject that already exists (such as a package name or an error code) and a number.
+ *
+ * <p>Every slot carries the sequence number of its event, set to -1 while the event is written,
+ * so that {@link #dump(PrintWriter)} skips events that are overwritten as they are read. Only a
+ * writer lapped by a full ring of other writers can leave a mixed event behind.
+ */
+final class FlightRecorder {
+
+  enum Event {
+    /** Point of Sale was resolved. The subject is the package name, the value its version. */
+    RESOLVED,
+    /** No correctly signed Point of Sale package is installed. */
+    NOT_INSTALLED,
+    /** A Point of Sale package failed verification. The value is its version. */
+    VERIFICATION_FAILED,
+    /** A package change dropped the resolved Point of Sale. The subject is the package name. */
+    PACKAGE_CHANGED,
+    /** A charge intent was created. The subject is the package name, the value the amount. */
+    CHARGE_INTENT_CREATED,
+    CHARGE_SUCCEEDED,
+    /** The subject is the error code, or null for an unknown one. */
+    CHARGE_FAILED,
+    /** A charge was rejected without starting Point of Sale. The subject is the error code. */
+    CHARGE_REJECTED,
+    /** A failed charge will be retried. The subject is the error code, the value the delay. */
+    CHARGE_RETRIED,
+    /** A duplicate charge got the result of the first one. The subject is the idempotency key. */
+    CHARGE_COALESCED
+  }
+
+  static final int CAPACITY = 128;
+
+  static final FlightRecorder shared = new FlightRecorder(CAPACITY);
+
+  private static final Event[] EVENTS = Event.values();
+
+  private final int mask;
+  private final AtomicLong nextSequence = new AtomicLong();
+  /** The sequence number of the event in each slot, or -1 while it is written. */
+  private final AtomicLongArray sequences;
+  private final AtomicLongArray timesMillis;
+  private final AtomicIntegerArray events;
+  private final AtomicReferenceArray<Object> subjects;
+  private final AtomicLongArray values;
+
+  /** @param capacity a power of two. */
+  FlightRecorder(int capacity) {
+    if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+      throw new IllegalArgumentException("capacity must be a power of two, not " + capacity);
+    }
+    mask = capacity - 1;
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, -1);
+    }
+    timesMillis = new AtomicLongArray(capacity);
+    events = new AtomicIntegerArray(capacity);
+    subjects = new AtomicReferenceArray<>(capacity);
+    values = new AtomicLongArray(capacity);
+  }
+
+  void record(Event event, @Nullable Object subject, long value) {
+    long sequence = nextSequence.getAndIncrement();
+    int slot = (int) sequence & mask;
+    sequences.set(slot, -1);
+    timesMillis.set(slot, System.currentTimeMillis());
+    events.set(slot, event.ordinal());
+    subjects.set(slot, subject);
+    values.set(slot, value);
+    sequences.set(slot, sequence);
+  }
+
+  /** Prints the recorded events, oldest first, one per line. */
+  void dump(PrintWriter writer) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+    Date date = new Date();
+    long end = nextSequence.get();
+    for (long sequence = Math.max(0, end - (mask + 1)); sequence < end; sequence++) {
+      int slot = (int) sequence & mask;
+      if (sequences.get(slot) != sequence) {
+        continue;
+      }
+      long timeMillis = timesMillis.get(slot);
+      Event event = EVENTS[events.get(slot)];
+      Object subject = subjects.get(slot);
+      long value = values.get(slot);
+      if (sequences.get(slot) != sequence) {
+        continue;
+      }
+      date.setTime(timeMillis);
+      writer.print(format.format(date));
+      writer.print(' ');
+      writer.print(event);
+      if (subject != null) {
+        writer.print(' ');
+        writer.print(subject);
+      }
+      if (value != 0) {
+        writer.print(' ');
+        writer.print(value);
+      }
+      writer.println();
+    }
+  }
+}
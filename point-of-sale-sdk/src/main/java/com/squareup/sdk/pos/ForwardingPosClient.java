@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.Executor;
+
+/** A {@link PosClient} that forwards every call to another client, for subclasses to decorate. */
+abstract class ForwardingPosClient implements PosClient {
+
+  final PosClient delegate;
+
+  ForwardingPosClient(PosClient delegate) {
+    this.delegate = delegate;
+  }
+
+  @NonNull @Override public Intent createChargeIntent(@NonNull ChargeRequest chargeRequest) {
+    return delegate.createChargeIntent(chargeRequest);
+  }
+
+  @NonNull @Override
+  public Intent createChargeIntent(@NonNull ChargeTemplate chargeTemplate, int totalAmount,
+      @Nullable String requestMetadata) {
+    return delegate.createChargeIntent(chargeTemplate, totalAmount, requestMetadata);
+  }
+
+  @Override public void prewarm(@NonNull Executor executor) {
+    delegate.prewarm(executor);
+  }
+
+  @Override public boolean isPointOfSaleInstalled() {
+    return delegate.isPointOfSaleInstalled();
+  }
+
+  @Override public void launchPointOfSale() {
+    delegate.launchPointOfSale();
+  }
+
+  @Override public void openPointOfSalePlayStoreListing() {
+    delegate.openPointOfSalePlayStoreListing();
+  }
+
+  @NonNull @Override public ChargeRequest.Success parseChargeSuccess(@NonNull Intent data) {
+    return delegate.parseChargeSuccess(data);
+  }
+
+  @NonNull @Override public ChargeRequest.Error parseChargeError(@NonNull Intent data) {
+    return delegate.parseChargeError(data);
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * {@link PosMetrics} that keeps a latency histogram for each {@link PosMetrics.Timing} and counts
+ * charge outcomes. Recording is lock free and does not allocate, so it is cheap enough to leave
+ * on in production:
+ *
+ * <pre class="code"><code class="java">
+ * HistogramPosMetrics metrics = new HistogramPosMetrics();
+ * PosClient posClient = PosSdk.createClient(context, CLIENT_ID, metrics);
+ * ...
+ * long p99 = metrics.percentileNanos(PosMetrics.Timing.INTENT_BUILD, 99);
+ * </code></pre>
+ *
+ * <p>Durations are bucketed with 8 buckets per power of two, so percentiles are reported with a
+ * relative error of at most 12.5%. Reads see each bucket atomically but not the histogram as a
+ * whole, so a read concurrent with recordings may be off by those recordings.
+ */
+public final class HistogramPosMetrics implements PosMetrics {
+
+  /** log2 of the number of buckets per power of two. */
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** Enough buckets for any positive long. */
+  private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+  private static final Timing[] TIMINGS = Timing.values();
+  private static final ChargeRequest.ErrorCode[] ERROR_CODES = ChargeRequest.ErrorCode.values();
+
+  /** The buckets of every timing, one after the other. */
+  private final AtomicLongArray buckets = new AtomicLongArray(TIMINGS.length * BUCKETS);
+  private final AtomicLong successCount = new AtomicLong();
+  /** Indexed by error code ordinal. The last slot counts unknown error codes. */
+  private final AtomicLongArray errorCounts = new AtomicLongArray(ERROR_CODES.length + 1);
+
+  @Override public void onTiming(@NonNull Timing timing, long durationNanos) {
+    buckets.incrementAndGet(timing.ordinal() * BUCKETS + bucket(Math.max(durationNanos, 0)));
+  }
+
+  @Override public void onChargeSuccess() {
+    successCount.incrementAndGet();
+  }
+
+  @Override public void onChargeError(@Nullable ChargeRequest.ErrorCode errorCode) {
+    errorCounts.incrementAndGet(errorIndex(errorCode));
+  }
+
+  /**
+   * @return the number of durations recorded for timing.
+   * @throws NullPointerException if timing is null.
+   */
+  public long count(@NonNull Timing timing) {
+    int offset = nonNull(timing, "timing").ordinal() * BUCKETS;
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += buckets.get(offset + i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the duration that the given percentage of the recorded durations do not exceed, such
+   * as {@code percentileNanos(ROUND_TRIP, 95)} for the p95 of round trips.
+   *
+   * @param percentile between 0 exclusive and 100 inclusive.
+   * @return the duration in nanoseconds, rounded up to the top of its bucket, or 0 if nothing was
+   * recorded for timing.
+   * @throws NullPointerException if timing is null.
+   * @throws IllegalArgumentException if percentile is out of range.
+   */
+  public long percentileNanos(@NonNull Timing timing, double percentile) {
+    nonNull(timing, "timing");
+    if (!(percentile > 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("percentile must be in (0, 100], not " + percentile);
+    }
+    int offset = timing.ordinal() * BUCKETS;
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(offset + i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return highestValue(i);
+      }
+    }
+    // Unreachable, since rank <= total.
+    return highestValue(BUCKETS - 1);
+  }
+
+  /** @return the number of successful charges parsed. */
+  public long successCount() {
+    return successCount.get();
+  }
+
+  /**
+   * @param errorCode an error code, or {@code null} for the codes that this version of the SDK
+   * does not know.
+   * @return the number of errors parsed with errorCode.
+   */
+  public long errorCount(@Nullable ChargeRequest.ErrorCode errorCode) {
+    return errorCounts.get(errorIndex(errorCode));
+  }
+
+  private static int errorIndex(@Nullable ChargeRequest.ErrorCode errorCode) {
+    return errorCode != null ? errorCode.ordinal() : ERROR_CODES.length;
+  }
+
+  /**
+   * Values below {@link #SUB_BUCKETS} get a bucket each. Larger values are split by power of two,
+   * then linearly by the {@link #SUB_BUCKET_BITS} bits that follow the highest one bit.
+   */
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** @return the highest value that falls in bucket. */
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    // The top bucket ends at Long.MAX_VALUE, where lowest + width overflows.
+    return lowest + (width - 1);
+  }
+}
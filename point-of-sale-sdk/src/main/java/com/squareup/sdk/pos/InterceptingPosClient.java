@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.List;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Runs intent creation and result parsing through {@link PosInterceptor PosInterceptors}, in the
+ * order they were added, before the client it decorates. Each step of a chain is a new object,
+ * as in OkHttp, so that an interceptor can proceed more than once.
+ */
+final class InterceptingPosClient extends ForwardingPosClient {
+
+  private final PosInterceptor[] interceptors;
+
+  InterceptingPosClient(PosClient delegate, List<PosInterceptor> interceptors) {
+    super(delegate);
+    this.interceptors = interceptors.toArray(new PosInterceptor[0]);
+  }
+
+  @NonNull @Override public Intent createChargeIntent(@NonNull ChargeRequest chargeRequest) {
+    nonNull(chargeRequest, "chargeRequest");
+    return new IntentChain(0, chargeRequest, null, null).proceed(chargeRequest);
+  }
+
+  @NonNull @Override
+  public Intent createChargeIntent(@NonNull ChargeTemplate chargeTemplate, int totalAmount,
+      @Nullable String requestMetadata) {
+    nonNull(chargeTemplate, "chargeTemplate");
+    if (totalAmount < 0) {
+      throw new IllegalArgumentException("totalAmount must be non-negative");
+    }
+    ChargeRequest chargeRequest =
+        chargeTemplate.chargeRequest.withAmountAndMetadata(totalAmount, requestMetadata);
+    return new IntentChain(0, chargeRequest, chargeTemplate, chargeRequest).proceed(chargeRequest);
+  }
+
+  @NonNull @Override public ChargeRequest.Success parseChargeSuccess(@NonNull Intent data) {
+    nonNull(data, "data");
+    return new SuccessChain(0, data).proceed(data);
+  }
+
+  @NonNull @Override public ChargeRequest.Error parseChargeError(@NonNull Intent data) {
+    nonNull(data, "data");
+    return new ErrorChain(0, data).proceed(data);
+  }
+
+  private final class IntentChain implements PosInterceptor.ChargeIntentChain {
+    private final int index;
+    private final ChargeRequest chargeRequest;
+    @Nullable private final ChargeTemplate chargeTemplate;
+    /** The request the template charge started with. */
+    @Nullable private final ChargeRequest templateRequest;
+
+    IntentChain(int index, ChargeRequest chargeRequest, @Nullable ChargeTemplate chargeTemplate,
+        @Nullable ChargeRequest templateRequest) {
+      this.index = index;
+      this.chargeRequest = chargeRequest;
+      this.chargeTemplate = chargeTemplate;
+      this.templateRequest = templateRequest;
+    }
+
+    @NonNull @Override public ChargeRequest chargeRequest() {
+      return chargeRequest;
+    }
+
+    @NonNull @Override public Intent proceed(@NonNull ChargeRequest chargeRequest) {
+      nonNull(chargeRequest, "chargeRequest");
+      if (index < interceptors.length) {
+        return interceptors[index].interceptChargeIntent(
+            new IntentChain(index + 1, chargeRequest, chargeTemplate, templateRequest));
+      }
+      if (chargeTemplate != null && chargeRequest == templateRequest) {
+        return delegate.createChargeIntent(chargeTemplate, chargeRequest.totalAmount,
+            chargeRequest.requestMetadata);
+      }
+      return delegate.createChargeIntent(chargeRequest);
+    }
+  }
+
+  private final class SuccessChain implements PosInterceptor.ResultChain<ChargeRequest.Success> {
+    private final int index;
+    private final Intent data;
+
+    SuccessChain(int index, Intent data) {
+      this.index = index;
+      this.data = data;
+    }
+
+    @NonNull @Override public Intent data() {
+      return data;
+    }
+
+    @NonNull @Override public ChargeRequest.Success proceed(@NonNull Intent data) {
+      nonNull(data, "data");
+      if (index < interceptors.length) {
+        return interceptors[index].interceptChargeSuccess(new SuccessChain(index + 1, data));
+      }
+      return delegate.parseChargeSuccess(data);
+    }
+  }
+
+  private final class ErrorChain implements PosInterceptor.ResultChain<ChargeRequest.Error> {
+    private final int index;
+    private final Intent data;
+
+    ErrorChain(int index, Intent data) {
+      this.index = index;
+      this.data = data;
+    }
+
+    @NonNull @Override public Intent data() {
+      return data;
+    }
+
+    @NonNull @Override public ChargeRequest.Error proceed(@NonNull Intent data) {
+      nonNull(data, "data");
+      if (index < interceptors.length) {
+        return interceptors[index].interceptChargeError(new ErrorChain(index + 1, data));
+      }
+      return delegate.parseChargeError(data);
+    }
+  }
+}
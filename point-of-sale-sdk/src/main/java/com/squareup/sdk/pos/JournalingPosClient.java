@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.UncheckedIOException;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
+
+/**
+ * Stamps a {@link ChargeJournal} token on the charge intents of a {@link PosClient}, and completes
+ * their charges in the journal when it parses their results.
+ */
+final class JournalingPosClient extends ForwardingPosClient {
+
+  private final ChargeJournal journal;
+
+  JournalingPosClient(PosClient delegate, ChargeJournal journal) {
+    super(delegate);
+    this.journal = journal;
+  }
+
+  @NonNull @Override public Intent createChargeIntent(@NonNull ChargeRequest chargeRequest) {
+    nonNull(chargeRequest, "chargeRequest");
+    String token = journal.newToken();
+    Intent intent = delegate.createChargeIntent(chargeRequest.withAmountAndMetadata(
+        chargeRequest.totalAmount, ChargeCorrelator.stamp(token, chargeRequest.requestMetadata)));
+    journal.recordCreated(token, chargeRequest, chargeRequest.totalAmount,
+        chargeRequest.requestMetadata);
+    return intent;
+  }
+
+  @NonNull @Override
+  public Intent createChargeIntent(@NonNull ChargeTemplate chargeTemplate, int totalAmount,
+      @Nullable String requestMetadata) {
+    nonNull(chargeTemplate, "chargeTemplate");
+    String token = journal.newToken();
+    Intent intent = delegate.createChargeIntent(chargeTemplate, totalAmount,
+        ChargeCorrelator.stamp(token, requestMetadata));
+    journal.recordCreated(token, chargeTemplate.chargeRequest, totalAmount, requestMetadata);
+    return intent;
+  }
+
+  @NonNull @Override public ChargeRequest.Success parseChargeSuccess(@NonNull Intent data) {
+    ChargeRequest.Success success = delegate.parseChargeSuccess(data);
+    if (!complete(success.requestMetadata)) {
+      return success;
+    }
+    return new ChargeRequest.Success(success.clientTransactionId, success.serverTransactionId,
+        ChargeCorrelator.unstamp(success.requestMetadata));
+  }
+
+  @NonNull @Override public ChargeRequest.Error parseChargeError(@NonNull Intent data) {
+    ChargeRequest.Error error = delegate.parseChargeError(data);
+    if (error.code == ChargeRequest.ErrorCode.NO_RESULT || !complete(error.requestMetadata)) {
+      return error;
+    }
+    return new ChargeRequest.Error(error.code, error.debugDescription,
+        ChargeCorrelator.unstamp(error.requestMetadata));
+  }
+
+  /** @return {@code true} if the request metadata has a journal token. */
+  private boolean complete(@Nullable String requestMetadata) {
+    try {
+      return journal.recordCompleted(requestMetadata);
+    } catch (UncheckedIOException e) {
+      // The charge stays open, and shows up as orphaned: the result matters more.
+      return true;
+    }
+  }
+}
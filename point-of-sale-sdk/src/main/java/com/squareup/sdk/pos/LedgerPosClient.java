@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import androidx.annotation.NonNull;
+
+/** Records the results parsed by a {@link PosClient} in a {@link ChargeLedger}. */
+final class LedgerPosClient extends ForwardingPosClient {
+
+  private final ChargeLedger ledger;
+
+  LedgerPosClient(PosClient delegate, ChargeLedger ledger) {
+    super(delegate);
+    this.ledger = ledger;
+  }
+
+  @NonNull @Override public ChargeRequest.Success parseChargeSuccess(@NonNull Intent data) {
+    ChargeRequest.Success success = delegate.parseChargeSuccess(data);
+    ledger.record(success);
+    return success;
+  }
+
+  @NonNull @Override public ChargeRequest.Error parseChargeError(@NonNull Intent data) {
+    ChargeRequest.Error error = delegate.parseChargeError(data);
+    ledger.record(error);
+    return error;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+
+import static android.content.pm.PackageManager.GET_SIGNATURES;
+
+/**
+ * Verifies signatures by fetching all of them with {@link PackageManager#GET_SIGNATURES}. Used
+ * before Android P, which added signing certificate queries to {@link PackageManager}.
+ */
+final class LegacySignatureVerifier implements SignatureVerifier {
+
+  @Override public int packageInfoFlags() {
+    // Potential Multiple Certificate Exploit
+    // Improper validation of app signatures could lead to issues where a malicious app submits
+    // itself to the Play Store with both its real certificate and a fake certificate and gains
+    // access to functionality or information it shouldn't have due to another application only
+    // checking for the fake certificate and ignoring the rest. We make sure to validate all
+    // signatures returned with this flag.
+    // https://bluebox.com/technical/android-fake-id-vulnerability/
+    //noinspection deprecation
+    return GET_SIGNATURES;
+  }
+
+  @Override public boolean isSignedByPointOfSale(PackageInfo packageInfo) {
+    //noinspection deprecation
+    Signature[] signatures = packageInfo.signatures;
+    if (signatures == null || signatures.length == 0) {
+      return false;
+    }
+
+    for (Signature signature : signatures) {
+      // A Signature holds the DER encoded signing certificate, so we fingerprint its bytes as is
+      // instead of parsing and re-encoding the certificate.
+      // If any of the embedded certificates is not on the list of authorized fingerprints for
+      // this package, we error out.
+      if (!POINT_OF_SALE_FINGERPRINTS.matches(signature.toByteArray())) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the installed Square Point of Sale package with the highest version, fetching each
+ * candidate's {@link PackageInfo} once. The resolved package is cached until a Point of Sale
+ * package is added, replaced or removed, and candidates are cached per package version, so that
+ * only the first charge pays for the PackageManager calls and the certificate checks.
+ */
+final class PointOfSaleResolver {
+
+  private static final String POINT_OF_SALE_PACKAGE_NAME = "com.squareup";
+
+  /** Notified when a Point of Sale package is added, replaced or removed. */
+  interface PackageChangeListener {
+    void onPointOfSaleChanged();
+  }
+
+  private static PointOfSaleResolver shared;
+
+  /**
+   * Returns the resolver shared by all clients created with this application context, so that
+   * they share one cache and one package change receiver. Only the shared resolver listens to
+   * package changes, and the receiver of a resolver that was replaced for another context is
+   * unregistered. Its listeners move to the new resolver.
+   */
+  static synchronized PointOfSaleResolver shared(Context applicationContext) {
+    if (shared == null || shared.context != applicationContext) {
+      PointOfSaleResolver replaced = shared;
+      shared = new PointOfSaleResolver(applicationContext);
+      if (replaced != null) {
+        replaced.context.unregisterReceiver(replaced.packageChangeReceiver);
+        synchronized (replaced) {
+          shared.listeners.addAll(replaced.listeners);
+        }
+      }
+      applicationContext.registerReceiver(shared.packageChangeReceiver, packageChangeFilter());
+    }
+    return shared;
+  }
+
+  private final Context context;
+  private final PackageManager packageManager;
+  private final SignatureVerifier verifier;
+  private final BroadcastReceiver packageChangeReceiver = new PackageChangeReceiver();
+  /** Every candidate resolved so far, by package name. Guarded by this. */
+  private final Map<String, ResolvedPointOfSale> candidates = new HashMap<>();
+  /** Held weakly, so that a listener doesn't outlive its owner. Guarded by this. */
+  private final List<WeakReference<PackageChangeListener>> listeners = new ArrayList<>();
+  /** Incremented on every invalidation. Guarded by this. */
+  private int generation;
+  private volatile ResolvedPointOfSale resolved;
+
+  PointOfSaleResolver(Context context) {
+    this(context, createVerifier(context.getPackageManager()));
+  }
+
+  PointOfSaleResolver(Context context, SignatureVerifier verifier) {
+    this.context = context;
+    this.verifier = verifier;
+    packageManager = context.getPackageManager();
+  }
+
+  /** Matches the broadcasts of packages being added, replaced or removed. */
+  static IntentFilter packageChangeFilter() {
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+    filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+    filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+    filter.addDataScheme("package");
+    return filter;
+  }
+
+  /**
+   * @return the changed package, or {@code null} if a broadcast matching
+   * {@link #packageChangeFilter()} doesn't name one.
+   */
+  @Nullable static String changedPackage(Intent packageChange) {
+    Uri data = packageChange.getData();
+    return data != null ? data.getSchemeSpecificPart() : null;
+  }
+
+  /** @return {@code true} if the package change may be a Point of Sale one. */
+  static boolean isPointOfSaleChange(@Nullable String changedPackage) {
+    return changedPackage == null || changedPackage.startsWith(POINT_OF_SALE_PACKAGE_NAME);
+  }
+
+  /**
+   * @return the installed Point of Sale package with the highest version code, or {@code null} if
+   * no correctly signed Point of Sale package is installed.
+   */
+  @Nullable ResolvedPointOfSale resolve() {
+    return resolve(null);
+  }
+
+  /**
+   * Like {@link #resolve()}, reporting the verification of each package version that was not
+   * verified before to metrics.
+   */
+  @Nullable ResolvedPointOfSale resolve(@Nullable PosMetrics metrics) {
+    ResolvedPointOfSale pointOfSale = resolved;
+    if (pointOfSale != null) {
+      return pointOfSale;
+    }
+    int startGeneration;
+    synchronized (this) {
+      startGeneration = generation;
+    }
+    pointOfSale = findPointOfSaleWithHighestVersion(queryChargeActivities(), metrics);
+    if (pointOfSale != null) {
+      FlightRecorder.shared.record(FlightRecorder.Event.RESOLVED, pointOfSale.packageName,
+          pointOfSale.versionCode);
+    } else {
+      FlightRecorder.shared.record(FlightRecorder.Event.NOT_INSTALLED, null, 0);
+    }
+    synchronized (this) {
+      // Don't cache a result that a package change made stale while we were resolving it.
+      if (generation == startGeneration) {
+        resolved = pointOfSale;
+      }
+    }
+    return pointOfSale;
+  }
+
+  /** Drops the resolved package. Verification results stay cached, keyed by package version. */
+  void invalidate() {
+    synchronized (this) {
+      generation++;
+      resolved = null;
+    }
+  }
+
+  /**
+   * Notifies listener of Point of Sale package changes, through the package change receiver of
+   * this resolver, until listener is garbage collected. The caller must keep a reference to it.
+   */
+  synchronized void addPackageChangeListener(PackageChangeListener listener) {
+    pruneListeners();
+    listeners.add(new WeakReference<>(listener));
+  }
+
+  private void notifyListeners() {
+    List<PackageChangeListener> notified;
+    synchronized (this) {
+      pruneListeners();
+      notified = new ArrayList<>(listeners.size());
+      for (WeakReference<PackageChangeListener> reference : listeners) {
+        PackageChangeListener listener = reference.get();
+        if (listener != null) {
+          notified.add(listener);
+        }
+      }
+    }
+    for (PackageChangeListener listener : notified) {
+      listener.onPointOfSaleChanged();
+    }
+  }
+
+  /** Drops the listeners that were garbage collected. */
+  private void pruneListeners() {
+    for (Iterator<WeakReference<PackageChangeListener>> i = listeners.iterator(); i.hasNext(); ) {
+      if (i.next().get() == null) {
+        i.remove();
+      }
+    }
+  }
+
+  private List<ResolveInfo> queryChargeActivities() {
+    Intent intent = new Intent(PosApi.INTENT_ACTION_CHARGE);
+    PosTrace.beginSection(PosTrace.QUERY);
+    try {
+      return packageManager.queryIntentActivities(intent, 0);
+    } finally {
+      PosTrace.endSection();
+    }
+  }
+
+  private ResolvedPointOfSale findPointOfSaleWithHighestVersion(List<ResolveInfo> activities,
+      @Nullable PosMetrics metrics) {
+    ResolvedPointOfSale pointOfSale = null;
+    for (ResolveInfo activity : activities) {
+      ActivityInfo activityInfo = activity.activityInfo;
+      if (!activityInfo.packageName.startsWith(POINT_OF_SALE_PACKAGE_NAME)) {
+        continue;
+      }
+      PackageInfo packageInfo;
+      PosTrace.beginSection(PosTrace.GET_PACKAGE_INFO, activityInfo.packageName);
+      try {
+        // One call fetches both the version and what the verifier needs.
+        packageInfo =
+            packageManager.getPackageInfo(activityInfo.packageName, verifier.packageInfoFlags());
+      } catch (PackageManager.NameNotFoundException e) {
+        // Package was uninstalled in between list and getting package info.
+        continue;
+      } finally {
+        PosTrace.endSection();
+      }
+      ResolvedPointOfSale candidate = verify(packageInfo, activityInfo, metrics);
+      if (!candidate.verified) {
+        FlightRecorder.shared.record(FlightRecorder.Event.VERIFICATION_FAILED,
+            candidate.packageName, candidate.versionCode);
+        continue;
+      }
+      if (pointOfSale == null || candidate.versionCode > pointOfSale.versionCode) {
+        pointOfSale = candidate;
+      }
+    }
+    return pointOfSale;
+  }
+
+  private ResolvedPointOfSale verify(PackageInfo packageInfo, ActivityInfo chargeActivity,
+      @Nullable PosMetrics metrics) {
+    String packageName = chargeActivity.packageName;
+    synchronized (this) {
+      ResolvedPointOfSale candidate = candidates.get(packageName);
+      if (candidate != null && candidate.isFor(packageInfo)) {
+        return candidate;
+      }
+    }
+    long startNanos = metrics != null ? SystemClock.elapsedRealtimeNanos() : 0;
+    boolean verified;
+    PosTrace.beginSection(PosTrace.VERIFY, packageName);
+    try {
+      verified = verifier.isSignedByPointOfSale(packageInfo);
+    } finally {
+      PosTrace.endSection();
+    }
+    if (metrics != null) {
+      metrics.onTiming(PosMetrics.Timing.VERIFICATION,
+          SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+    ResolvedPointOfSale candidate = new ResolvedPointOfSale(packageInfo, chargeActivity, verified);
+    synchronized (this) {
+      candidates.put(packageName, candidate);
+    }
+    return candidate;
+  }
+
+  private static SignatureVerifier createVerifier(PackageManager packageManager) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+      return new SigningCertificateVerifier(packageManager);
+    }
+    return new LegacySignatureVerifier();
+  }
+
+  private final class PackageChangeReceiver extends BroadcastReceiver {
+    @Override public void onReceive(Context context, Intent intent) {
+      String packageName = changedPackage(intent);
+      if (isPointOfSaleChange(packageName)) {
+        FlightRecorder.shared.record(FlightRecorder.Event.PACKAGE_CHANGED, packageName, 0);
+        invalidate();
+        notifyListeners();
+      }
+    }
+  }
+}
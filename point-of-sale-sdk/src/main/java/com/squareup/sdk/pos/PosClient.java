@@ -18,6 +18,10 @@ package com.squareup.sdk.pos;
 
 import android.content.Intent;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.Executor;
+
+import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
 
 /**
  * Provides methods for interacting with the Square Point of Sale app, such as by generating
@@ -37,6 +41,49 @@ public interface PosClient {
    */
   @NonNull Intent createChargeIntent(@NonNull ChargeRequest chargeRequest);
 
+  /**
+   * Creates an {@code Intent} that initiates a Square Point of Sale transaction for the request of
+   * the template, with a different amount and request metadata. This is cheaper than building a
+   * new {@link ChargeRequest} for each transaction.
+   *
+   * <p>The default implementation builds a new request from the template's request and calls
+   * {@link #createChargeIntent(ChargeRequest)}.
+   *
+   * @param totalAmount see {@link ChargeRequest.Builder#Builder(int, CurrencyCode)}.
+   * @param requestMetadata see {@link ChargeRequest.Builder#requestMetadata(String)}.
+   * @throws android.content.ActivityNotFoundException if Square Point of Sale is not installed.
+   * @throws NullPointerException if chargeTemplate is null.
+   * @throws IllegalArgumentException if totalAmount is negative.
+   * @see ChargeTemplate
+   */
+  @NonNull default Intent createChargeIntent(@NonNull ChargeTemplate chargeTemplate,
+      int totalAmount, @Nullable String requestMetadata) {
+    ChargeRequest chargeRequest = nonNull(chargeTemplate, "chargeTemplate").chargeRequest;
+    return createChargeIntent(chargeRequest.newBuilder(totalAmount, chargeRequest.currencyCode)
+        .requestMetadata(requestMetadata)
+        .build());
+  }
+
+  /**
+   * Finds and verifies the installed Square Point of Sale app on the provided {@link Executor}, so
+   * that the first call to {@link #createChargeIntent(ChargeRequest)} costs the same as the
+   * following ones. The result is cached until Square Point of Sale is installed, updated or
+   * uninstalled. Call this once, for example when the activity that takes payments is created.
+   *
+   * <p>The default implementation calls {@link #isPointOfSaleInstalled()} on the executor.
+   *
+   * @param executor a background executor.
+   * @throws NullPointerException if executor is null.
+   */
+  default void prewarm(@NonNull Executor executor) {
+    nonNull(executor, "executor");
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        isPointOfSaleInstalled();
+      }
+    });
+  }
+
   /**
    * @return {@code true} if a version of Square Point of Sale that supports the Point of Sale API
    * is installed,
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import androidx.annotation.NonNull;
+
+/**
+ * Observes, rewrites or short circuits the charge intents and the charge results of a
+ * {@link PosClient}. Interceptors are installed with {@link PosSdk.Builder#addInterceptor}, and
+ * each method calls its chain to proceed to the next interceptor, and eventually to the client:
+ *
+ * <pre class="code"><code class="java">
+ * class NoteInterceptor implements PosInterceptor {
+ *   {@literal @}Override public Intent interceptChargeIntent(ChargeIntentChain chain) {
+ *     ChargeRequest request = chain.chargeRequest();
+ *     return chain.proceed(request.newBuilder().note("Register 3").build());
+ *   }
+ * }
+ * </code></pre>
+ *
+ * <p>Every method proceeds by default, so an interceptor only overrides what it intercepts.
+ * Interceptors are called on the thread that uses the client, and must be thread safe if the
+ * client is shared between threads.
+ */
+public interface PosInterceptor {
+
+  /** Intercepts {@link PosClient#createChargeIntent}, with a request or with a template. */
+  @NonNull default Intent interceptChargeIntent(@NonNull ChargeIntentChain chain) {
+    return chain.proceed(chain.chargeRequest());
+  }
+
+  /** Intercepts {@link PosClient#parseChargeSuccess(Intent)}. */
+  @NonNull default ChargeRequest.Success interceptChargeSuccess(
+      @NonNull ResultChain<ChargeRequest.Success> chain) {
+    return chain.proceed(chain.data());
+  }
+
+  /** Intercepts {@link PosClient#parseChargeError(Intent)}. */
+  @NonNull default ChargeRequest.Error interceptChargeError(
+      @NonNull ResultChain<ChargeRequest.Error> chain) {
+    return chain.proceed(chain.data());
+  }
+
+  /** The rest of the chain that creates a charge intent. */
+  interface ChargeIntentChain {
+    /**
+     * @return the request to create an intent for. A charge started from a
+     * {@link ChargeTemplate} has the request of the template, with the amount and the metadata
+     * of the charge.
+     */
+    @NonNull ChargeRequest chargeRequest();
+
+    /**
+     * Passes chargeRequest to the next interceptor, or to the client after the last one. A
+     * template charge keeps the template's intent extras as long as the request it proceeds with
+     * is {@link #chargeRequest()} itself.
+     *
+     * @throws NullPointerException if chargeRequest is null.
+     */
+    @NonNull Intent proceed(@NonNull ChargeRequest chargeRequest);
+  }
+
+  /** The rest of the chain that parses a charge result. */
+  interface ResultChain<T> {
+    /** @return the result data that Point of Sale returned. */
+    @NonNull Intent data();
+
+    /**
+     * Passes data to the next interceptor, or to the client after the last one.
+     *
+     * @throws NullPointerException if data is null.
+     */
+    @NonNull T proceed(@NonNull Intent data);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Receives timings and charge outcomes from a {@link PosClient} created with
+ * {@link PosSdk#createClient(android.content.Context, String, PosMetrics)}.
+ *
+ * <p>Methods are called synchronously on the thread that uses the client, from the charge path
+ * itself. Implementations must be thread safe and should return quickly without allocating, like
+ * {@link HistogramPosMetrics}.
+ */
+public interface PosMetrics {
+
+  /** The operations that a {@link PosClient} times. */
+  enum Timing {
+    /**
+     * Finding the installed Point of Sale package, including {@link #VERIFICATION}. Resolutions
+     * served from the cache are timed too.
+     */
+    RESOLUTION,
+    /** Checking the signing certificates of one Point of Sale package version. */
+    VERIFICATION,
+    /** Creating a charge intent, including {@link #RESOLUTION}. */
+    INTENT_BUILD,
+    /**
+     * From the creation of a charge intent to the parsing of its result, which mostly measures
+     * the time spent in Point of Sale.
+     */
+    ROUND_TRIP
+  }
+
+  /**
+   * @param durationNanos the duration of the operation, as measured by
+   * {@link android.os.SystemClock#elapsedRealtimeNanos()}.
+   */
+  void onTiming(@NonNull Timing timing, long durationNanos);
+
+  /** Called when {@link PosClient#parseChargeSuccess(android.content.Intent)} parses a result. */
+  void onChargeSuccess();
+
+  /**
+   * Called when {@link PosClient#parseChargeError(android.content.Intent)} parses a result.
+   *
+   * @param errorCode the code of the error, or {@code null} if Point of Sale returned a code that
+   * this version of the SDK does not know.
+   */
+  void onChargeError(@Nullable ChargeRequest.ErrorCode errorCode);
+}
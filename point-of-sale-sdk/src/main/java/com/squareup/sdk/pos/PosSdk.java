@@ -18,6 +18,9 @@ package com.squareup.sdk.pos;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * <p>The Point of Sale SDK lets you start the Square Point of Sale app to take transactions with the Square
@@ -46,6 +49,26 @@ import androidx.annotation.NonNull;
  * }
  * </code></pre>
  *
+ * <h2>Prewarming</h2>
+ *
+ * <p>Finding and verifying Point of Sale takes several PackageManager calls. Start it in the
+ * background when the activity that takes payments is created, to keep it off the first charge:
+ *
+ * <pre class="code"><code class="java">
+ * posClient.prewarm(backgroundExecutor);
+ * </code></pre>
+ *
+ * <h2>Metrics</h2>
+ *
+ * <p>A client created with {@link PosMetrics} reports resolution, verification, intent build and
+ * round trip timings, as well as charge outcomes. {@link HistogramPosMetrics} keeps latency
+ * percentiles and outcome counters:
+ *
+ * <pre class="code"><code class="java">
+ * HistogramPosMetrics metrics = new HistogramPosMetrics();
+ * PosClient posClient = PosSdk.createClient(context, CLIENT_ID, metrics);
+ * </code></pre>
+ *
  * <h2>Handling a charge result</h2>
  *
  * <pre class="code"><code class="java">
@@ -76,12 +99,96 @@ public final class PosSdk {
    * @param clientId Client ID provided by Square.
    * @return a unique {@link PosClient} instance.
    * @throws NullPointerException if context or clientId are null.
+   * @see Builder
    */
   public static @NonNull PosClient createClient(@NonNull Context context,
       @NonNull String clientId) {
-    context = PosSdkHelper.nonNull(context, "context").getApplicationContext();
-    PosSdkHelper.nonNull(clientId, "clientId");
-    return new RealPosClient(context, clientId);
+    return new Builder(context, clientId).build();
+  }
+
+  /**
+   * Like {@link #createClient(Context, String)}, for a client that reports how long its
+   * operations take and how charges end to metrics.
+   *
+   * @throws NullPointerException if context, clientId or metrics are null.
+   * @see HistogramPosMetrics
+   */
+  public static @NonNull PosClient createClient(@NonNull Context context,
+      @NonNull String clientId, @NonNull PosMetrics metrics) {
+    return new Builder(context, clientId).metrics(metrics).build();
+  }
+
+  /**
+   * Prints the most recent SDK events, oldest first: Point of Sale resolutions and verification
+   * failures, package changes, charge intents and parsed results. Events are recorded for every
+   * client at no allocation cost, so this can be attached to bug reports from production devices,
+   * for instance from {@code Activity.dump()}.
+   *
+   * @throws NullPointerException if writer is null.
+   */
+  public static void dumpRecentEvents(@NonNull PrintWriter writer) {
+    FlightRecorder.shared.dump(PosSdkHelper.nonNull(writer, "writer"));
+    writer.flush();
+  }
+
+  /**
+   * Configures a {@link PosClient} with optional {@link PosMetrics} and
+   * {@link PosInterceptor PosInterceptors}:
+   *
+   * <pre class="code"><code class="java">
+   * PosClient posClient = new PosSdk.Builder(context, CLIENT_ID)
+   *     .metrics(metrics)
+   *     .addInterceptor(new NoteInterceptor())
+   *     .build();
+   * </code></pre>
+   */
+  public static final class Builder {
+    private final Context context;
+    private final String clientId;
+    private PosMetrics metrics;
+    private final List<PosInterceptor> interceptors = new ArrayList<>();
+
+    /**
+     * @param context Any {@link Context} will work. The client only holds on to the application
+     * context.
+     * @param clientId Client ID provided by Square.
+     * @throws NullPointerException if context or clientId are null.
+     */
+    public Builder(@NonNull Context context, @NonNull String clientId) {
+      this.context = PosSdkHelper.nonNull(context, "context").getApplicationContext();
+      this.clientId = PosSdkHelper.nonNull(clientId, "clientId");
+    }
+
+    /**
+     * Reports how long the operations of the client take and how charges end to metrics.
+     *
+     * @throws NullPointerException if metrics is null.
+     */
+    public @NonNull Builder metrics(@NonNull PosMetrics metrics) {
+      this.metrics = PosSdkHelper.nonNull(metrics, "metrics");
+      return this;
+    }
+
+    /**
+     * Adds an interceptor after the ones added before, so the first one added sees calls first
+     * and results last. A client without interceptors doesn't pay for any.
+     *
+     * @throws NullPointerException if interceptor is null.
+     */
+    public @NonNull Builder addInterceptor(@NonNull PosInterceptor interceptor) {
+      interceptors.add(PosSdkHelper.nonNull(interceptor, "interceptor"));
+      return this;
+    }
+
+    /** @return a unique {@link PosClient} instance. */
+    public @NonNull PosClient build() {
+      PosClient client =
+          new RealPosClient(context, clientId, PointOfSaleResolver.shared(context), metrics);
+      if (interceptors.isEmpty()) {
+        return client;
+      }
+      return new InterceptingPosClient(client, interceptors);
+    }
   }
 
   private PosSdk() {
@@ -16,11 +16,11 @@
 
 package com.squareup.sdk.pos;
 
-import java.util.Locale;
-
 /** Internal helper class. */
 class PosSdkHelper {
 
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
   static <T> T nonNull(T t, String name) {
     if (t == null) {
       throw new NullPointerException(name + " must not be null");
@@ -29,20 +29,37 @@ class PosSdkHelper {
   }
 
   static String bytesToHexString(byte[] bytes) {
-    // Capacity should be (bytes.length * 3 - 1), but this avoids negative case.
-    StringBuilder hex = new StringBuilder(bytes.length * 3);
-    int len = bytes.length;
-    for (int i = 0; i < len; i++) {
-      int lo = bytes[i] & 0xff;
-      if (lo < 0x10) {
-        hex.append('0');
+    if (bytes.length == 0) {
+      return "";
+    }
+    char[] hex = new char[bytes.length * 3 - 1];
+    for (int i = 0, j = 0; i < bytes.length; i++) {
+      if (i != 0) {
+        hex[j++] = ':';
       }
-      hex.append(Integer.toHexString(lo).toUpperCase(Locale.US));
-      if (i != len - 1) {
-        hex.append(':');
+      int b = bytes[i] & 0xff;
+      hex[j++] = HEX_DIGITS[b >>> 4];
+      hex[j++] = HEX_DIGITS[b & 0x0f];
+    }
+    return new String(hex);
+  }
+
+  /** Parses a colon separated hex string, as returned by {@link #bytesToHexString(byte[])}. */
+  static byte[] hexStringToBytes(String hex) {
+    int length = (hex.length() + 1) / 3;
+    if (length == 0 || hex.length() != length * 3 - 1) {
+      throw new IllegalArgumentException("Invalid hex string: " + hex);
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      int hi = Character.digit(hex.charAt(i * 3), 16);
+      int lo = Character.digit(hex.charAt(i * 3 + 1), 16);
+      if (hi < 0 || lo < 0 || (i != length - 1 && hex.charAt(i * 3 + 2) != ':')) {
+        throw new IllegalArgumentException("Invalid hex string: " + hex);
       }
+      bytes[i] = (byte) (hi << 4 | lo);
     }
-    return hex.toString();
+    return bytes;
   }
 
   private PosSdkHelper() {
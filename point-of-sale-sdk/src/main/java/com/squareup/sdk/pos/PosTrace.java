@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.os.Build;
+import android.os.Trace;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trace sections for system traces, such as the ones recorded by Perfetto. Sections are named
+ * {@code PosSdk:<operation>}. Beginning and ending a section costs a flag check when tracing is
+ * off, and sections that need a name to be built only build it when tracing is on.
+ */
+final class PosTrace {
+
+  static final String QUERY = "PosSdk:query";
+  static final String GET_PACKAGE_INFO = "PosSdk:getPackageInfo";
+  static final String VERIFY = "PosSdk:verify";
+  static final String CREATE_CHARGE_INTENT = "PosSdk:createChargeIntent";
+  static final String PARSE_CHARGE_RESULT = "PosSdk:parseChargeResult";
+  /** The async section that spans from the creation of a charge intent to its result. */
+  static final String CHARGE = "PosSdk:charge";
+
+  private static final AtomicInteger cookies = new AtomicInteger();
+
+  static void beginSection(String sectionName) {
+    Trace.beginSection(sectionName);
+  }
+
+  /**
+   * Begins a section named {@code sectionName + " " + detail} when tracing is on. Before Android Q
+   * tracing can't be checked, so the section is named sectionName only.
+   */
+  static void beginSection(String sectionName, String detail) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled()) {
+      Trace.beginSection(sectionName + " " + detail);
+    } else {
+      Trace.beginSection(sectionName);
+    }
+  }
+
+  static void endSection() {
+    Trace.endSection();
+  }
+
+  /**
+   * Begins an async section, which can end on any thread. Async sections need Android Q.
+   *
+   * @return the cookie that ends the section, or 0 if no section began.
+   */
+  static int beginAsyncSection(String sectionName) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || !Trace.isEnabled()) {
+      return 0;
+    }
+    int cookie = cookies.incrementAndGet();
+    if (cookie == 0) {
+      cookie = cookies.incrementAndGet();
+    }
+    Trace.beginAsyncSection(sectionName, cookie);
+    return cookie;
+  }
+
+  /** Ends the async section that {@link #beginAsyncSection(String)} returned cookie for. */
+  static void endAsyncSection(String sectionName, int cookie) {
+    if (cookie != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Trace.endAsyncSection(sectionName, cookie);
+    }
+  }
+
+  private PosTrace() {
+    throw new AssertionError();
+  }
+}
@@ -16,29 +16,17 @@
 
 package com.squareup.sdk.pos;
 
-import android.annotation.SuppressLint;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.content.pm.Signature;
 import android.net.Uri;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateEncodingException;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.List;
+import androidx.annotation.Nullable;
+import java.util.concurrent.Executor;
 
 import static android.content.Intent.ACTION_VIEW;
-import static android.content.pm.PackageManager.GET_SIGNATURES;
 import static com.squareup.sdk.pos.PosSdkHelper.nonNull;
 
 final class RealPosClient implements PosClient {
@@ -51,45 +39,92 @@ final class RealPosClient implements PosClient {
       Uri.parse("https://play.google.com/store/apps/details?id=" + POINT_OF_SALE_PACKAGE_NAME);
   private static final Uri PLAY_STORE_APP_URL =
       Uri.parse("market://details?id=" + POINT_OF_SALE_PACKAGE_NAME);
-  private static final String[] POINT_OF_SALE_FINGERPRINTS = {
-      // the key used in Google to sign Play Store release has fingerprint:
-      "EA:54:A3:62:C8:5B:F4:34:F2:9F:B6:B0:42:D8:3E:5C:7D:C3:8A:D3",
-      // the key used inside Squre to sign direct APK artifacts has fingerprint:
-      "71:24:CC:BD:46:C4:51:33:D8:D5:72:3D:1D:5E:4C:45:64:27:3D:17"
-    };
 
   private final Context context;
   private final String clientId;
   private final PackageManager packageManager;
+  private final PointOfSaleResolver resolver;
+  @Nullable private final PosMetrics metrics;
+  private volatile ChargeIntentTemplate chargeIntentTemplate;
+  /** When the last charge intent was created, or 0 once its result was parsed. */
+  private volatile long chargeIntentCreatedNanos;
+  /** The cookie of the async trace section of the last charge intent, or 0. */
+  private volatile int chargeTraceCookie;
 
-  RealPosClient(Context context, String clientId) {
+  /** Uses the shared resolver of applicationContext. */
+  RealPosClient(Context applicationContext, String clientId) {
+    this(applicationContext, clientId, PointOfSaleResolver.shared(applicationContext));
+  }
+
+  RealPosClient(Context context, String clientId, PointOfSaleResolver resolver) {
+    this(context, clientId, resolver, null);
+  }
+
+  RealPosClient(Context context, String clientId, PointOfSaleResolver resolver,
+      @Nullable PosMetrics metrics) {
     this.context = context;
     this.clientId = clientId;
+    this.resolver = resolver;
+    this.metrics = metrics;
     packageManager = context.getPackageManager();
   }
 
   @NonNull @Override public Intent createChargeIntent(@NonNull ChargeRequest chargeRequest) {
     nonNull(chargeRequest, "chargeRequest");
-    List<ResolveInfo> activities = queryChargeActivities();
-    PackageInfo pointOfSalePackage = findPointOfSaleWithHighestVersion(activities);
-    return createPinnedChargeIntent(chargeRequest, pointOfSalePackage);
+    PosTrace.beginSection(PosTrace.CREATE_CHARGE_INTENT);
+    try {
+      long startNanos = startTiming();
+      ResolvedPointOfSale pointOfSale = requirePointOfSale();
+      Intent intent = createPinnedChargeIntent(chargeRequest, pointOfSale);
+      onChargeIntentCreated(startNanos, pointOfSale, chargeRequest.totalAmount);
+      return intent;
+    } finally {
+      PosTrace.endSection();
+    }
   }
 
-  @Override public boolean isPointOfSaleInstalled() {
-    List<ResolveInfo> activities = queryChargeActivities();
-    for (ResolveInfo activity : activities) {
-      String packageName = activity.activityInfo.packageName;
-      if (isPointOfSale(packageName)) {
-        return true;
-      }
+  @NonNull @Override
+  public Intent createChargeIntent(@NonNull ChargeTemplate chargeTemplate, int totalAmount,
+      @Nullable String requestMetadata) {
+    nonNull(chargeTemplate, "chargeTemplate");
+    if (totalAmount < 0) {
+      throw new IllegalArgumentException("totalAmount must be non-negative");
     }
-    return false;
+    PosTrace.beginSection(PosTrace.CREATE_CHARGE_INTENT);
+    try {
+      long startNanos = startTiming();
+      ResolvedPointOfSale pointOfSale = requirePointOfSale();
+      Intent intent = new Intent(chargeIntentTemplate(pointOfSale));
+      intent.putExtras(chargeTemplate.requestExtras);
+      // putExtras() copies the list reference, so each intent gets its own list.
+      intent.putExtra(PosApi.EXTRA_TENDER_TYPES,
+          TenderTypes.apiExtra(chargeTemplate.chargeRequest.tenderMask));
+      intent.putExtra(PosApi.EXTRA_TOTAL_AMOUNT, totalAmount);
+      intent.putExtra(PosApi.EXTRA_REQUEST_METADATA, requestMetadata);
+      onChargeIntentCreated(startNanos, pointOfSale, totalAmount);
+      return intent;
+    } finally {
+      PosTrace.endSection();
+    }
+  }
+
+  @Override public void prewarm(@NonNull Executor executor) {
+    nonNull(executor, "executor");
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        // The resolver publishes its result through a volatile field.
+        resolve();
+      }
+    });
+  }
+
+  @Override public boolean isPointOfSaleInstalled() {
+    return resolve() != null;
   }
 
   @Override public void launchPointOfSale() {
-    List<ResolveInfo> activities = queryChargeActivities();
-    PackageInfo pointOfSalePackage = findPointOfSaleWithHighestVersion(activities);
-    Intent pointOfSaleIntent = packageManager.getLaunchIntentForPackage(pointOfSalePackage.packageName);
+    ResolvedPointOfSale pointOfSale = requirePointOfSale();
+    Intent pointOfSaleIntent = packageManager.getLaunchIntentForPackage(pointOfSale.packageName);
     context.startActivity(pointOfSaleIntent);
   }
 
@@ -104,68 +139,116 @@ final class RealPosClient implements PosClient {
 
   @NonNull @Override public ChargeRequest.Success parseChargeSuccess(@NonNull Intent data) {
     nonNull(data, "data");
-    return new ChargeRequest.Success(data.getStringExtra(PosApi.RESULT_CLIENT_TRANSACTION_ID),
-        data.getStringExtra(PosApi.RESULT_SERVER_TRANSACTION_ID),
-        data.getStringExtra(PosApi.RESULT_REQUEST_METADATA));
+    PosTrace.beginSection(PosTrace.PARSE_CHARGE_RESULT);
+    ChargeRequest.Success success;
+    try {
+      success = new ChargeRequest.Success(data.getStringExtra(PosApi.RESULT_CLIENT_TRANSACTION_ID),
+          data.getStringExtra(PosApi.RESULT_SERVER_TRANSACTION_ID),
+          data.getStringExtra(PosApi.RESULT_REQUEST_METADATA));
+    } finally {
+      PosTrace.endSection();
+    }
+    onChargeResultParsed();
+    FlightRecorder.shared.record(FlightRecorder.Event.CHARGE_SUCCEEDED, null, 0);
+    if (metrics != null) {
+      metrics.onChargeSuccess();
+    }
+    return success;
   }
 
   @NonNull @Override public ChargeRequest.Error parseChargeError(@NonNull Intent data) {
     nonNull(data, "data");
-    return new ChargeRequest.Error(
-        ChargeRequest.ErrorCode.parse(data.getStringExtra(PosApi.RESULT_ERROR_CODE)),
-        data.getStringExtra(PosApi.RESULT_ERROR_DESCRIPTION),
-        data.getStringExtra(PosApi.RESULT_REQUEST_METADATA));
+    PosTrace.beginSection(PosTrace.PARSE_CHARGE_RESULT);
+    ChargeRequest.Error error;
+    try {
+      error = new ChargeRequest.Error(
+          ChargeRequest.ErrorCode.parse(data.getStringExtra(PosApi.RESULT_ERROR_CODE)),
+          data.getStringExtra(PosApi.RESULT_ERROR_DESCRIPTION),
+          data.getStringExtra(PosApi.RESULT_REQUEST_METADATA));
+    } finally {
+      PosTrace.endSection();
+    }
+    onChargeResultParsed();
+    FlightRecorder.shared.record(FlightRecorder.Event.CHARGE_FAILED, error.code, 0);
+    if (metrics != null) {
+      metrics.onChargeError(error.code);
+    }
+    return error;
   }
 
-  private List<ResolveInfo> queryChargeActivities() {
-    Intent intent = new Intent(PosApi.INTENT_ACTION_CHARGE);
-    return packageManager.queryIntentActivities(intent, 0);
+  @Nullable private ResolvedPointOfSale resolve() {
+    if (metrics == null) {
+      return resolver.resolve();
+    }
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    ResolvedPointOfSale pointOfSale = resolver.resolve(metrics);
+    metrics.onTiming(PosMetrics.Timing.RESOLUTION, SystemClock.elapsedRealtimeNanos() - startNanos);
+    return pointOfSale;
   }
 
-  private PackageInfo findPointOfSaleWithHighestVersion(List<ResolveInfo> activities) {
-    PackageInfo pointOfSalePackage = null;
-    for (ResolveInfo activity : activities) {
-      String packageName = activity.activityInfo.packageName;
-      if (!isPointOfSale(packageName)) {
-        continue;
-      }
-      PackageInfo packageInfo;
-      try {
-        packageInfo = packageManager.getPackageInfo(packageName, 0);
-      } catch (PackageManager.NameNotFoundException e) {
-        // Package was uninstalled in between list and getting package info.
-        continue;
-      }
-      if (pointOfSalePackage == null || packageInfo.versionCode > pointOfSalePackage.versionCode) {
-        pointOfSalePackage = packageInfo;
-      }
+  /** @return the start of a timing, or 0 if this client has no metrics. */
+  private long startTiming() {
+    return metrics != null ? SystemClock.elapsedRealtimeNanos() : 0;
+  }
+
+  private void onChargeIntentCreated(long startNanos, ResolvedPointOfSale pointOfSale,
+      int totalAmount) {
+    FlightRecorder.shared.record(FlightRecorder.Event.CHARGE_INTENT_CREATED,
+        pointOfSale.packageName, totalAmount);
+    if (metrics != null) {
+      long nowNanos = SystemClock.elapsedRealtimeNanos();
+      metrics.onTiming(PosMetrics.Timing.INTENT_BUILD, nowNanos - startNanos);
+      chargeIntentCreatedNanos = nowNanos;
+    }
+    // The previous charge intent was never launched or never got a result.
+    PosTrace.endAsyncSection(PosTrace.CHARGE, chargeTraceCookie);
+    chargeTraceCookie = PosTrace.beginAsyncSection(PosTrace.CHARGE);
+  }
+
+  /** Point of Sale takes one charge at a time, so a result is for the last charge intent. */
+  private void onChargeResultParsed() {
+    int traceCookie = chargeTraceCookie;
+    if (traceCookie != 0) {
+      chargeTraceCookie = 0;
+      PosTrace.endAsyncSection(PosTrace.CHARGE, traceCookie);
+    }
+    if (metrics == null) {
+      return;
+    }
+    long createdNanos = chargeIntentCreatedNanos;
+    if (createdNanos != 0) {
+      chargeIntentCreatedNanos = 0;
+      metrics.onTiming(PosMetrics.Timing.ROUND_TRIP,
+          SystemClock.elapsedRealtimeNanos() - createdNanos);
     }
-    if (pointOfSalePackage == null) {
+  }
+
+  private ResolvedPointOfSale requirePointOfSale() {
+    ResolvedPointOfSale pointOfSale = resolve();
+    if (pointOfSale == null) {
       throw new ActivityNotFoundException("Square Point of Sale is not installed on this device.");
     }
-    return pointOfSalePackage;
+    return pointOfSale;
   }
 
   private Intent createPinnedChargeIntent(ChargeRequest chargeRequest,
-      PackageInfo pointOfSalePackage) {
-    Intent intent = new Intent(PosApi.INTENT_ACTION_CHARGE);
-    intent.putExtra(PosApi.EXTRA_POINT_OF_SALE_CLIENT_ID, clientId);
+      ResolvedPointOfSale pointOfSale) {
+    Intent intent = new Intent(chargeIntentTemplate(pointOfSale));
     intent.putExtra(PosApi.EXTRA_TOTAL_AMOUNT, chargeRequest.totalAmount);
+    intent.putExtra(PosApi.EXTRA_REQUEST_METADATA, chargeRequest.requestMetadata);
+    putRequestExtras(intent, chargeRequest);
+    return intent;
+  }
+
+  /** Puts the extras of every field of the request but the amount and the metadata. */
+  static void putRequestExtras(Intent intent, ChargeRequest chargeRequest) {
     intent.putExtra(PosApi.EXTRA_NOTE, chargeRequest.note);
-    intent.putExtra(PosApi.EXTRA_API_VERSION, API_VERSION);
-    intent.putExtra(PosApi.EXTRA_SDK_VERSION, SDK_VERSION);
     intent.putExtra(PosApi.EXTRA_CURRENCY_CODE, chargeRequest.currencyCode.name());
-    intent.putExtra(PosApi.EXTRA_REQUEST_METADATA, chargeRequest.requestMetadata);
     if (chargeRequest.customerId != null && chargeRequest.customerId.length() > 0) {
       intent.putExtra(PosApi.EXTRA_CUSTOMER_ID, chargeRequest.customerId);
     }
 
-    ArrayList<String> tenderTypeExtra = new ArrayList<>();
-    for (ChargeRequest.TenderType tenderType : chargeRequest.tenderTypes) {
-      tenderTypeExtra.add(tenderType.apiExtraName);
-    }
-
-    intent.putExtra(PosApi.EXTRA_TENDER_TYPES, tenderTypeExtra);
+    intent.putExtra(PosApi.EXTRA_TENDER_TYPES, TenderTypes.apiExtra(chargeRequest.tenderMask));
 
     if (chargeRequest.locationId != null && chargeRequest.locationId.length() > 0) {
       intent.putExtra(PosApi.EXTRA_LOCATION_ID, chargeRequest.locationId);
@@ -173,82 +256,28 @@ final class RealPosClient implements PosClient {
     if (chargeRequest.autoReturnMillis > PosApi.AUTO_RETURN_NO_TIMEOUT) {
       intent.putExtra(PosApi.EXTRA_AUTO_RETURN_TIMEOUT_MS, chargeRequest.autoReturnMillis);
     }
-    intent.setPackage(pointOfSalePackage.packageName);
-    return intent;
-  }
-
-  private boolean isPointOfSale(String packageName) {
-    return packageName.startsWith(POINT_OF_SALE_PACKAGE_NAME)
-        && matchesExpectedFingerprints(packageName, POINT_OF_SALE_FINGERPRINTS);
   }
 
-  @SuppressLint("PackageManagerGetSignatures")
-  private boolean matchesExpectedFingerprints(String packageName, String[] expectedFingerprints) {
-    PackageInfo packageInfo;
-    try {
-      // Potential Multiple Certificate Exploit
-      // Improper validation of app signatures could lead to issues where a malicious app submits
-      // itself to the Play Store with both its real certificate and a fake certificate and gains
-      // access to functionality or information it shouldn't have due to another application only
-      // checking for the fake certificate and ignoring the rest. We make sure to validate all
-      // signatures returned by this method.
-      // https://bluebox.com/technical/android-fake-id-vulnerability/
-      packageInfo = packageManager.getPackageInfo(packageName, GET_SIGNATURES);
-    } catch (PackageManager.NameNotFoundException e) {
-      return false;
-    }
-
-    Signature[] signatures = packageInfo.signatures;
-    if (signatures == null || signatures.length == 0) {
-      return false;
-    }
-
-    CertificateFactory certificateFactory;
-    try {
-      certificateFactory = CertificateFactory.getInstance("X509");
-    } catch (CertificateException e) {
-      return false;
-    }
-    MessageDigest sha1;
-    try {
-      sha1 = MessageDigest.getInstance("SHA1");
-    } catch (NoSuchAlgorithmException e) {
-      return false;
-    }
-    for (Signature signature : signatures) {
-      byte[] signatureBytes = signature.toByteArray();
-      InputStream input = new ByteArrayInputStream(signatureBytes);
-      X509Certificate certificate;
-      try {
-        certificate = (X509Certificate) certificateFactory.generateCertificate(input);
-      } catch (CertificateException e) {
-        return false;
-      }
-      byte[] encodedCertificate;
-      try {
-        encodedCertificate = certificate.getEncoded();
-      } catch (CertificateEncodingException e) {
-        return false;
-      }
-      byte[] publicKey = sha1.digest(encodedCertificate);
-      String actualFingerprint = PosSdkHelper.bytesToHexString(publicKey);
-
-      // If any of the embedded certificates is not on the list of authorized fingerprints for
-      // this package, we error out.
-      if (!arrayContains(expectedFingerprints, actualFingerprint)) {
-        return false;
+  /**
+   * Returns an intent pinned to the resolved Point of Sale activity that carries the extras shared
+   * by every charge. Callers must copy it before adding the extras of a request.
+   */
+  private Intent chargeIntentTemplate(ResolvedPointOfSale pointOfSale) {
+    ChargeIntentTemplate template = chargeIntentTemplate;
+    if (template == null || template.pointOfSale != pointOfSale) {
+      Intent intent = new Intent(PosApi.INTENT_ACTION_CHARGE);
+      intent.putExtra(PosApi.EXTRA_POINT_OF_SALE_CLIENT_ID, clientId);
+      intent.putExtra(PosApi.EXTRA_API_VERSION, API_VERSION);
+      intent.putExtra(PosApi.EXTRA_SDK_VERSION, SDK_VERSION);
+      intent.setPackage(pointOfSale.packageName);
+      if (pointOfSale.chargeActivity != null) {
+        // An explicit component spares ActivityManager from resolving the intent again.
+        intent.setComponent(pointOfSale.chargeActivity);
       }
+      template = new ChargeIntentTemplate(pointOfSale, intent);
+      chargeIntentTemplate = template;
     }
-    return true;
-  }
-
-  private boolean arrayContains(String[] array, String target) {
-    for (String value : array) {
-      if (value.equals(target)) {
-        return true;
-      }
-    }
-    return false;
+    return template.intent;
   }
 
   private boolean isPlayStoreInstalled() {
@@ -262,4 +291,15 @@ final class RealPosClient implements PosClient {
     }
     return playStoreInstalled;
   }
+
+  /** A charge intent template and the Point of Sale package it is pinned to. */
+  private static final class ChargeIntentTemplate {
+    final ResolvedPointOfSale pointOfSale;
+    final Intent intent;
+
+    ChargeIntentTemplate(ResolvedPointOfSale pointOfSale, Intent intent) {
+      this.pointOfSale = pointOfSale;
+      this.intent = intent;
+    }
+  }
 }
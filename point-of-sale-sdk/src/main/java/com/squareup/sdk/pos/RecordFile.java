@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped file of length prefixed binary records, which the kernel writes back even if the
+ * process dies right after an append, so there is no fsync. The length of a record is written
+ * after its content, so a record cut short by the process dying is ignored on replay. When the
+ * file is full, its live records are rewritten to a new file that replaces it.
+ *
+ * <p>Not thread safe, except for {@link #startRewrite(Iterable, int)}.
+ */
+final class RecordFile {
+
+  /** Writes the content of a record. */
+  interface Record {
+    void writeTo(ByteBuffer target);
+  }
+
+  /**
+   * Reads the content of a record. Throws {@link BufferUnderflowException} or {@link
+   * IllegalArgumentException} to skip a record it can't read.
+   */
+  interface Reader {
+    void read(ByteBuffer source);
+  }
+
+  private static final int HEADER_SIZE = 4;
+  private static final int LENGTH_SIZE = 4;
+
+  private final File file;
+  private final int magic;
+  private MappedByteBuffer buffer;
+
+  /**
+   * Opens the file, creating it if needed, and reads back every complete record.
+   *
+   * @param magic identifies the kind and version of the records.
+   * @throws IOException if the file can't be mapped or has another magic.
+   */
+  RecordFile(File file, int magic, int initialCapacity, Reader reader) throws IOException {
+    this.file = file;
+    this.magic = magic;
+    long length = file.length();
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Unexpected file: " + file);
+    }
+    buffer = map(file, Math.max((int) length, initialCapacity));
+    int fileMagic = buffer.getInt();
+    if (fileMagic == 0) {
+      buffer.putInt(0, magic);
+    } else if (fileMagic != magic) {
+      throw new IOException("Unexpected file: " + file);
+    } else {
+      replay(reader);
+    }
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @return {@code false} if the file is full, in which case nothing was written. Call {@link
+   * #rewrite(Iterable)} with records that account for this one.
+   */
+  boolean append(Record record) {
+    return append(buffer, record);
+  }
+
+  /** @return {@code true} once the file is more than three quarters full. */
+  boolean isMostlyFull() {
+    return buffer.position() > buffer.capacity() / 4 * 3;
+  }
+
+  int capacity() {
+    return buffer.capacity();
+  }
+
+  /**
+   * Replaces the file with one that holds only these records. The new file is at most half full,
+   * so that appending doesn't rewrite it again right away.
+   *
+   * @throws UncheckedIOException if the new file could not be written.
+   */
+  void rewrite(Iterable<? extends Record> records) {
+    new Rewrite(new File(file.getPath() + ".tmp"), records, buffer.capacity()).replace();
+  }
+
+  /**
+   * Starts to replace the file with one that holds only these records, and at least capacity
+   * bytes. Unlike {@link #rewrite(Iterable)}, this only reads the immutable state of this file, so
+   * it can run on another thread while records are appended. Those records must then be appended
+   * to the rewrite too, before it {@link Rewrite#replace() replaces} the file.
+   *
+   * @throws UncheckedIOException if the new file could not be written.
+   */
+  Rewrite startRewrite(Iterable<? extends Record> records, int capacity) {
+    return new Rewrite(new File(file.getPath() + ".rewrite"), records, capacity);
+  }
+
+  /** A new file, written next to the file until it replaces it. */
+  final class Rewrite {
+    private final File rewrittenFile;
+    private final MappedByteBuffer rewritten;
+
+    Rewrite(File rewrittenFile, Iterable<? extends Record> records, int capacity) {
+      this.rewrittenFile = rewrittenFile;
+      this.rewritten = writeAll(rewrittenFile, records, capacity);
+    }
+
+    /** @return {@code false} if the new file is full, in which case nothing was written. */
+    boolean append(Record record) {
+      return RecordFile.append(rewritten, record);
+    }
+
+    /**
+     * Replaces the file with the new one, which later records are appended to.
+     *
+     * @throws UncheckedIOException if the file could not be replaced.
+     */
+    void replace() {
+      if (!rewrittenFile.renameTo(file)) {
+        throw new UncheckedIOException(new IOException("Could not replace " + file));
+      }
+      buffer = rewritten;
+    }
+
+    /** Deletes the new file, leaving the file as it is. */
+    void abandon() {
+      rewrittenFile.delete();
+    }
+  }
+
+  /** Forces the records to storage. */
+  void force() {
+    buffer.force();
+  }
+
+  private void replay(Reader reader) {
+    int end = HEADER_SIZE;
+    while (end + LENGTH_SIZE <= buffer.capacity()) {
+      int length = buffer.getInt(end);
+      if (length <= 0 || length > buffer.capacity() - end - LENGTH_SIZE) {
+        break;
+      }
+      ByteBuffer record = buffer.duplicate();
+      record.position(end + LENGTH_SIZE);
+      end += LENGTH_SIZE + length;
+      record.limit(end);
+      try {
+        reader.read(record);
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        // A record we can't read is skipped, its length tells where the next one starts.
+      }
+    }
+    // Clear what a record cut short left behind, so that it can't pass for the next record.
+    for (int i = end; i < buffer.capacity(); i++) {
+      if (buffer.get(i) != 0) {
+        buffer.put(i, (byte) 0);
+      }
+    }
+    buffer.position(end);
+  }
+
+  /** Writes the records to a new file, at most half full. */
+  private MappedByteBuffer writeAll(File target, Iterable<? extends Record> records,
+      int capacity) {
+    try {
+      while (true) {
+        if (target.exists() && !target.delete()) {
+          throw new IOException("Could not delete " + target);
+        }
+        MappedByteBuffer written = map(target, capacity);
+        if (writeAll(written, records) && written.position() <= capacity / 2) {
+          return written;
+        }
+        capacity *= 2;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private boolean writeAll(ByteBuffer target, Iterable<? extends Record> records) {
+    try {
+      target.putInt(magic);
+      for (Record record : records) {
+        int start = target.position();
+        target.position(start + LENGTH_SIZE);
+        record.writeTo(target);
+        commit(target, start);
+      }
+      return true;
+    } catch (BufferOverflowException e) {
+      return false;
+    }
+  }
+
+  private static boolean append(ByteBuffer target, Record record) {
+    int start = target.position();
+    try {
+      target.position(start + LENGTH_SIZE);
+      record.writeTo(target);
+      commit(target, start);
+      return true;
+    } catch (BufferOverflowException e) {
+      target.position(start);
+      return false;
+    }
+  }
+
+  /** Writing the length last is what makes a record visible to {@link #replay(Reader)}. */
+  private static void commit(ByteBuffer target, int start) {
+    target.putInt(start, target.position() - start - LENGTH_SIZE);
+  }
+
+  private static MappedByteBuffer map(File file, int size) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      if (randomAccessFile.length() < size) {
+        randomAccessFile.setLength(size);
+      }
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /** Strings are written as UTF-16 chars, which doesn't allocate. */
+  static void putString(ByteBuffer target, @Nullable String value) {
+    if (value == null) {
+      target.putInt(-1);
+      return;
+    }
+    int length = value.length();
+    target.putInt(length);
+    for (int i = 0; i < length; i++) {
+      target.putChar(value.charAt(i));
+    }
+  }
+
+  @Nullable static String getString(ByteBuffer source) {
+    int length = source.getInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > source.remaining() / 2) {
+      throw new IllegalArgumentException("Invalid string length " + length);
+    }
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = source.getChar();
+    }
+    return new String(chars);
+  }
+
+  static String getNonNullString(ByteBuffer source) {
+    String value = getString(source);
+    if (value == null) {
+      throw new IllegalArgumentException("Unexpected null string");
+    }
+    return value;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.ComponentName;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import androidx.annotation.Nullable;
+
+/** An installed Point of Sale candidate, resolved with a single PackageManager call. */
+final class ResolvedPointOfSale {
+
+  final String packageName;
+  final int versionCode;
+  final long lastUpdateTime;
+  /** The activity handling charge intents, or null if the package manager didn't name it. */
+  @Nullable final ComponentName chargeActivity;
+  /** Whether the package is signed by Square Point of Sale. */
+  final boolean verified;
+
+  ResolvedPointOfSale(PackageInfo packageInfo, ActivityInfo chargeActivityInfo, boolean verified) {
+    packageName = packageInfo.packageName;
+    versionCode = packageInfo.versionCode;
+    lastUpdateTime = packageInfo.lastUpdateTime;
+    chargeActivity = chargeActivityInfo.name != null
+        ? new ComponentName(packageName, chargeActivityInfo.name) : null;
+    this.verified = verified;
+  }
+
+  /** @return {@code true} if this was resolved from the same installed version of the package. */
+  boolean isFor(PackageInfo packageInfo) {
+    return versionCode == packageInfo.versionCode && lastUpdateTime == packageInfo.lastUpdateTime;
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.pm.PackageInfo;
+
+/** Checks that an installed package is signed by Square Point of Sale. */
+interface SignatureVerifier {
+
+  /** SHA-1 fingerprints of the certificates Square Point of Sale is signed with. */
+  FingerprintSet POINT_OF_SALE_FINGERPRINTS = new FingerprintSet("SHA1",
+      // the key used in Google to sign Play Store release has fingerprint:
+      "EA:54:A3:62:C8:5B:F4:34:F2:9F:B6:B0:42:D8:3E:5C:7D:C3:8A:D3",
+      // the key used inside Squre to sign direct APK artifacts has fingerprint:
+      "71:24:CC:BD:46:C4:51:33:D8:D5:72:3D:1D:5E:4C:45:64:27:3D:17");
+
+  /**
+   * @return the flags to pass to {@link android.content.pm.PackageManager#getPackageInfo(String,
+   * int)} so that the returned {@link PackageInfo} has what {@link #isSignedByPointOfSale} needs.
+   */
+  int packageInfoFlags();
+
+  /**
+   * @param packageInfo fetched with {@link #packageInfoFlags()}.
+   * @return {@code true} if every certificate the package is signed with is a Square Point of Sale
+   * certificate, {@code false} otherwise or if the package is not installed anymore.
+   */
+  boolean isSignedByPointOfSale(PackageInfo packageInfo);
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+import android.content.pm.SigningInfo;
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+
+import static android.content.pm.PackageManager.CERT_INPUT_SHA256;
+import static android.content.pm.PackageManager.GET_SIGNING_CERTIFICATES;
+import static com.squareup.sdk.pos.PosSdkHelper.hexStringToBytes;
+
+/**
+ * Verifies signatures with the signing certificate APIs added in Android P, which take signing
+ * certificate rotation into account.
+ *
+ * <p>{@link PackageManager#hasSigningCertificate(String, byte[], int)} lets the platform check a
+ * pinned certificate without sending any certificate to this process. It only matches packages
+ * with a single signer, which protects against the multiple certificate exploit. Packages that it
+ * does not match are checked with {@link PackageManager#GET_SIGNING_CERTIFICATES}.
+ */
+@RequiresApi(Build.VERSION_CODES.P)
+final class SigningCertificateVerifier implements SignatureVerifier {
+
+  /** SHA-256 fingerprints of the same certificates as {@link #POINT_OF_SALE_FINGERPRINTS}. */
+  private static final byte[][] POINT_OF_SALE_SHA256_FINGERPRINTS = {
+      // EA:54:A3:62:C8:5B:F4:34:F2:9F:B6:B0:42:D8:3E:5C:7D:C3:8A:D3
+      hexStringToBytes("21:A7:46:75:96:C1:68:65:0F:D7:B6:31:B6:54:22:EB"
+          + ":56:3E:1D:21:AF:F2:2D:DE:73:89:BA:0D:5D:73:87:48"),
+      // 71:24:CC:BD:46:C4:51:33:D8:D5:72:3D:1D:5E:4C:45:64:27:3D:17
+      hexStringToBytes("03:29:ED:71:19:64:DC:0A:DD:DD:7E:1D:4E:01:2B:C5"
+          + ":E8:F2:F8:18:8E:6B:35:F9:DD:12:0A:97:04:3A:E0:4A"),
+  };
+
+  private final PackageManager packageManager;
+
+  SigningCertificateVerifier(PackageManager packageManager) {
+    this.packageManager = packageManager;
+  }
+
+  @Override public int packageInfoFlags() {
+    return 0;
+  }
+
+  @Override public boolean isSignedByPointOfSale(PackageInfo installedPackage) {
+    String packageName = installedPackage.packageName;
+    for (byte[] fingerprint : POINT_OF_SALE_SHA256_FINGERPRINTS) {
+      if (packageManager.hasSigningCertificate(packageName, fingerprint, CERT_INPUT_SHA256)) {
+        return true;
+      }
+    }
+
+    PackageInfo packageInfo;
+    try {
+      packageInfo = packageManager.getPackageInfo(packageName, GET_SIGNING_CERTIFICATES);
+    } catch (PackageManager.NameNotFoundException e) {
+      return false;
+    }
+    SigningInfo signingInfo = packageInfo.signingInfo;
+    if (signingInfo == null) {
+      return false;
+    }
+    if (signingInfo.hasMultipleSigners()) {
+      // Rotation is not supported with multiple signers, and every one of them must be ours.
+      return allMatch(signingInfo.getApkContentsSigners());
+    }
+    // The history holds the current certificate and, if it was rotated, the certificates it
+    // was proven to descend from.
+    return anyMatch(signingInfo.getSigningCertificateHistory());
+  }
+
+  private static boolean allMatch(Signature[] signatures) {
+    if (signatures == null || signatures.length == 0) {
+      return false;
+    }
+    for (Signature signature : signatures) {
+      if (!POINT_OF_SALE_FINGERPRINTS.matches(signature.toByteArray())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean anyMatch(Signature[] signatures) {
+    if (signatures == null) {
+      return false;
+    }
+    for (Signature signature : signatures) {
+      if (POINT_OF_SALE_FINGERPRINTS.matches(signature.toByteArray())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Tender type sets are represented as bitmasks of {@link ChargeRequest.TenderType} ordinals. There
+ * are only a few dozen combinations, so the {@link Set} and the intent extra names for each one
+ * are built once and shared.
+ */
+final class TenderTypes {
+
+  private static final ChargeRequest.TenderType[] VALUES = ChargeRequest.TenderType.values();
+
+  /** Mask of all tender types. */
+  static final int ALL = (1 << VALUES.length) - 1;
+
+  private static final List<Set<ChargeRequest.TenderType>> SETS = new ArrayList<>(ALL + 1);
+  private static final List<List<String>> API_EXTRAS = new ArrayList<>(ALL + 1);
+
+  static {
+    for (int mask = 0; mask <= ALL; mask++) {
+      EnumSet<ChargeRequest.TenderType> set = EnumSet.noneOf(ChargeRequest.TenderType.class);
+      List<String> apiExtra = new ArrayList<>();
+      for (ChargeRequest.TenderType tenderType : VALUES) {
+        if ((mask & bit(tenderType)) != 0) {
+          set.add(tenderType);
+          apiExtra.add(tenderType.apiExtraName);
+        }
+      }
+      SETS.add(unmodifiableSet(set));
+      API_EXTRAS.add(unmodifiableList(apiExtra));
+    }
+  }
+
+  static int bit(ChargeRequest.TenderType tenderType) {
+    return 1 << tenderType.ordinal();
+  }
+
+  /** @throws NullPointerException if tenderTypes contains null. */
+  static int maskOf(Collection<ChargeRequest.TenderType> tenderTypes) {
+    int mask = 0;
+    for (ChargeRequest.TenderType tenderType : tenderTypes) {
+      mask |= bit(tenderType);
+    }
+    return mask;
+  }
+
+  /** @throws NullPointerException if tenderTypes contains null. */
+  static int maskOf(ChargeRequest.TenderType... tenderTypes) {
+    int mask = 0;
+    for (ChargeRequest.TenderType tenderType : tenderTypes) {
+      mask |= bit(tenderType);
+    }
+    return mask;
+  }
+
+  /** @return the shared, unmodifiable set of the tender types in mask. */
+  static Set<ChargeRequest.TenderType> set(int mask) {
+    return SETS.get(mask);
+  }
+
+  /**
+   * @return a new {@link PosApi#EXTRA_TENDER_TYPES} value for mask. The extra has to be an {@link
+   * ArrayList}, and each intent gets its own so that callers may still change it.
+   */
+  static ArrayList<String> apiExtra(int mask) {
+    return new ArrayList<>(API_EXTRAS.get(mask));
+  }
+
+  private TenderTypes() {
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.DISABLED;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_CANCELED;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.USER_NOT_LOGGED_IN;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class) //
+public class ChargeCircuitBreakerTest {
+
+  @Mock PosClient delegate;
+  Context context;
+  ChargeRequest request;
+  Intent data;
+  ChargeCircuitBreaker breaker;
+  PosClient client;
+
+  @Before public void setUp() {
+    initMocks(this);
+    context = mock(Context.class);
+    when(context.getApplicationContext()).thenReturn(context);
+    request = new ChargeRequest.Builder(1_00, CurrencyCode.USD).requestMetadata("metadata").build();
+    data = new Intent();
+    breaker = new ChargeCircuitBreaker(context, 2, 30, TimeUnit.SECONDS);
+    client = new InterceptingPosClient(delegate, Collections.singletonList(breaker));
+  }
+
+  @Test public void opensAfterConsecutivePersistentErrors() {
+    returnError(USER_NOT_LOGGED_IN);
+
+    failCharge();
+    assertThat(breaker.isOpen()).isFalse();
+    failCharge();
+
+    assertThat(breaker.isOpen()).isTrue();
+    ChargeRequest.Error rejection = rejection();
+    assertThat(rejection.code).isEqualTo(USER_NOT_LOGGED_IN);
+    assertThat(rejection.debugDescription).isEqualTo("error");
+    assertThat(rejection.requestMetadata).isEqualTo("metadata");
+    verify(delegate, times(2)).createChargeIntent(request);
+  }
+
+  @Test public void transientErrorsDoNotOpen() {
+    returnError(TRANSACTION_CANCELED);
+
+    failCharge();
+    failCharge();
+    failCharge();
+
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test public void differentErrorsAreCountedSeparately() {
+    returnError(USER_NOT_LOGGED_IN);
+    failCharge();
+    returnError(DISABLED);
+    failCharge();
+
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test public void unknownErrorResetsCount() {
+    returnError(USER_NOT_LOGGED_IN);
+    failCharge();
+    returnError(null);
+    failCharge();
+    returnError(USER_NOT_LOGGED_IN);
+    failCharge();
+
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test public void successResetsCount() {
+    returnError(USER_NOT_LOGGED_IN);
+    failCharge();
+    client.parseChargeSuccess(data);
+    failCharge();
+
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test public void probesAfterBackoff() {
+    open();
+
+    ShadowSystemClock.advanceBy(Duration.ofSeconds(30));
+    client.createChargeIntent(request);
+    rejection();
+
+    verify(delegate, times(3)).createChargeIntent(request);
+  }
+
+  @Test public void failedProbeReopens() {
+    open();
+    ShadowSystemClock.advanceBy(Duration.ofSeconds(30));
+
+    failCharge();
+
+    assertThat(breaker.isOpen()).isTrue();
+    rejection();
+  }
+
+  @Test public void successfulProbeCloses() {
+    open();
+    ShadowSystemClock.advanceBy(Duration.ofSeconds(30));
+    client.createChargeIntent(request);
+
+    client.parseChargeSuccess(data);
+
+    assertThat(breaker.isOpen()).isFalse();
+    client.createChargeIntent(request);
+  }
+
+  @Test public void pointOfSalePackageChangeCloses() {
+    open();
+
+    sendPackageBroadcast("com.example.app");
+    assertThat(breaker.isOpen()).isTrue();
+    sendPackageBroadcast("com.squareup");
+
+    assertThat(breaker.isOpen()).isFalse();
+    client.createChargeIntent(request);
+  }
+
+  @Test public void breakersShareOneReceiver() {
+    open();
+    ChargeCircuitBreaker other = new ChargeCircuitBreaker(context, 2, 30, TimeUnit.SECONDS);
+    PosSdk.createClient(context, "client");
+
+    verify(context, times(1)).registerReceiver(any(BroadcastReceiver.class),
+        any(IntentFilter.class));
+    sendPackageBroadcast("com.squareup");
+    assertThat(breaker.isOpen()).isFalse();
+    assertThat(other.isOpen()).isFalse();
+  }
+
+  @Test public void resetCloses() {
+    open();
+
+    breaker.reset();
+
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void zeroThresholdThrows() {
+    new ChargeCircuitBreaker(context, 0, 30, TimeUnit.SECONDS);
+  }
+
+  private void open() {
+    returnError(DISABLED);
+    failCharge();
+    failCharge();
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  private void returnError(ChargeRequest.ErrorCode code) {
+    when(delegate.parseChargeError(data)).thenReturn(new ChargeRequest.Error(code, "error", null));
+  }
+
+  private void failCharge() {
+    client.createChargeIntent(request);
+    client.parseChargeError(data);
+  }
+
+  private ChargeRequest.Error rejection() {
+    try {
+      client.createChargeIntent(request);
+    } catch (ChargeRejectedException e) {
+      return e.error;
+    }
+    throw new AssertionError("Expected the charge to be rejected");
+  }
+
+  private void sendPackageBroadcast(String packageName) {
+    ArgumentCaptor<BroadcastReceiver> receiver = ArgumentCaptor.forClass(BroadcastReceiver.class);
+    verify(context).registerReceiver(receiver.capture(), any(IntentFilter.class));
+    receiver.getValue().onReceive(context,
+        new Intent(Intent.ACTION_PACKAGE_REPLACED, Uri.parse("package:" + packageName)));
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_CANCELED;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class) //
+public class ChargeCorrelatorTest {
+
+  @Mock PosClient posClient;
+  ChargeCorrelator correlator;
+  Intent data;
+
+  @Before public void setUp() {
+    initMocks(this);
+    when(posClient.createChargeIntent(any(ChargeRequest.class))).thenReturn(mock(Intent.class));
+    when(posClient.createChargeIntent(any(ChargeTemplate.class), anyInt(), anyString()))
+        .thenReturn(mock(Intent.class));
+    correlator = new ChargeCorrelator(posClient, 2, 1, TimeUnit.HOURS);
+    data = new Intent();
+  }
+
+  @Test public void successCarriesRequestAndRequestMetadata() {
+    ChargeRequest request = request("metadata");
+    succeedWith(start(correlator, request));
+
+    ChargeCorrelator.Correlated<ChargeRequest.Success> success =
+        correlator.parseChargeSuccess(data);
+
+    assertThat(success.chargeRequest).isSameAs(request);
+    assertThat(success.result.requestMetadata).isEqualTo("metadata");
+    assertThat(success.result.clientTransactionId).isEqualTo("client");
+    assertThat(success.result.serverTransactionId).isEqualTo("server");
+  }
+
+  @Test public void errorCarriesRequestAndRequestMetadata() {
+    ChargeRequest request = request("metadata");
+    String sentMetadata = start(correlator, request);
+    when(posClient.parseChargeError(data))
+        .thenReturn(new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", sentMetadata));
+
+    ChargeCorrelator.Correlated<ChargeRequest.Error> error = correlator.parseChargeError(data);
+
+    assertThat(error.chargeRequest).isSameAs(request);
+    assertThat(error.result.requestMetadata).isEqualTo("metadata");
+    assertThat(error.result.code).isEqualTo(TRANSACTION_CANCELED);
+  }
+
+  @Test public void stampsRequestMetadata() {
+    String sentMetadata = start(correlator, request("metadata"));
+
+    assertThat(sentMetadata).isNotEqualTo("metadata").endsWith("metadata");
+  }
+
+  @Test public void keepsNullRequestMetadata() {
+    ChargeRequest request = request(null);
+    succeedWith(start(correlator, request));
+
+    ChargeCorrelator.Correlated<ChargeRequest.Success> success =
+        correlator.parseChargeSuccess(data);
+
+    assertThat(success.chargeRequest).isSameAs(request);
+    assertThat(success.result.requestMetadata).isNull();
+  }
+
+  @Test public void templateChargeCarriesItsRequest() {
+    ChargeTemplate template = new ChargeTemplate(new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .note("note")
+        .build());
+    correlator.createChargeIntent(template, 2_00, "metadata");
+    ArgumentCaptor<String> sentMetadata = ArgumentCaptor.forClass(String.class);
+    verify(posClient).createChargeIntent(eq(template), eq(2_00), sentMetadata.capture());
+    succeedWith(sentMetadata.getValue());
+
+    ChargeCorrelator.Correlated<ChargeRequest.Success> success =
+        correlator.parseChargeSuccess(data);
+
+    assertThat(success.chargeRequest.totalAmount).isEqualTo(2_00);
+    assertThat(success.chargeRequest.requestMetadata).isEqualTo("metadata");
+    assertThat(success.chargeRequest.note).isEqualTo("note");
+    assertThat(success.result.requestMetadata).isEqualTo("metadata");
+  }
+
+  @Test public void unstampedResultHasNoRequest() {
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", "metadata");
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+
+    ChargeCorrelator.Correlated<ChargeRequest.Success> correlated =
+        correlator.parseChargeSuccess(data);
+
+    assertThat(correlated.chargeRequest).isNull();
+    assertThat(correlated.result).isSameAs(success);
+  }
+
+  @Test public void resultOfPreviousProcessHasNoRequest() {
+    ChargeCorrelator previous = new ChargeCorrelator(posClient, 2, 1, TimeUnit.HOURS);
+    succeedWith(start(previous, request("metadata")));
+    correlator.createChargeIntent(request("other"));
+
+    ChargeCorrelator.Correlated<ChargeRequest.Success> success =
+        correlator.parseChargeSuccess(data);
+
+    assertThat(success.chargeRequest).isNull();
+    assertThat(success.result.requestMetadata).isEqualTo("metadata");
+  }
+
+  @Test public void requestIsReturnedOnce() {
+    succeedWith(start(correlator, request("metadata")));
+    correlator.parseChargeSuccess(data);
+
+    assertThat(correlator.parseChargeSuccess(data).chargeRequest).isNull();
+    assertThat(correlator.pendingCount()).isZero();
+  }
+
+  @Test public void dropsOldestRequestsBeyondMaxSize() {
+    String first = start(correlator, request("first"));
+    String second = start(correlator, request("second"));
+    String third = start(correlator, request("third"));
+
+    assertThat(correlator.pendingCount()).isEqualTo(2);
+    succeedWith(first);
+    assertThat(correlator.parseChargeSuccess(data).chargeRequest).isNull();
+    succeedWith(third);
+    assertThat(correlator.parseChargeSuccess(data).chargeRequest).isEqualTo(request("third"));
+    succeedWith(second);
+    assertThat(correlator.parseChargeSuccess(data).chargeRequest).isEqualTo(request("second"));
+  }
+
+  @Test public void dropsRequestsOlderThanMaxAge() {
+    succeedWith(start(correlator, request("metadata")));
+
+    ShadowSystemClock.advanceBy(Duration.ofMinutes(61));
+
+    assertThat(correlator.pendingCount()).isZero();
+    ChargeCorrelator.Correlated<ChargeRequest.Success> success =
+        correlator.parseChargeSuccess(data);
+    assertThat(success.chargeRequest).isNull();
+    assertThat(success.result.requestMetadata).isEqualTo("metadata");
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void nonPositiveMaxSizeThrows() {
+    new ChargeCorrelator(posClient, 0, 1, TimeUnit.HOURS);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void nonPositiveMaxAgeThrows() {
+    new ChargeCorrelator(posClient, 1, 0, TimeUnit.HOURS);
+  }
+
+  /** Starts a charge and returns the request metadata sent to Point of Sale. */
+  private String start(ChargeCorrelator chargeCorrelator, ChargeRequest request) {
+    chargeCorrelator.createChargeIntent(request);
+    ArgumentCaptor<ChargeRequest> sent = ArgumentCaptor.forClass(ChargeRequest.class);
+    verify(posClient, atLeastOnce()).createChargeIntent(sent.capture());
+    return sent.getValue().requestMetadata;
+  }
+
+  private void succeedWith(String requestMetadata) {
+    when(posClient.parseChargeSuccess(data))
+        .thenReturn(new ChargeRequest.Success("client", "server", requestMetadata));
+  }
+
+  private static ChargeRequest request(String requestMetadata) {
+    return new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .requestMetadata(requestMetadata)
+        .build();
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.NO_RESULT;
+import static com.squareup.sdk.pos.PosApi.EXTRA_REQUEST_METADATA;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_CANCELED;
+import static com.squareup.sdk.pos.ChargeRequest.TenderType.CASH;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class) //
+public class ChargeJournalTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Mock PosClient posClient;
+  File file;
+  ChargeJournal journal;
+  PosClient client;
+
+  @Before public void setUp() throws IOException {
+    initMocks(this);
+    when(posClient.createChargeIntent(any(ChargeRequest.class))).thenAnswer(
+        invocation -> chargeIntent(invocation.<ChargeRequest>getArgument(0).requestMetadata));
+    when(posClient.createChargeIntent(any(ChargeTemplate.class), anyInt(), any()))
+        .thenAnswer(invocation -> chargeIntent(invocation.getArgument(2)));
+    file = new File(temporaryFolder.getRoot(), "charges.journal");
+    journal = ChargeJournal.open(file);
+    client = journal.wrap(posClient);
+  }
+
+  @Test public void newJournalHasNoOrphans() {
+    assertThat(journal.orphanedCharges()).isEmpty();
+  }
+
+  @Test public void startedChargeIsOrphanedAfterReopening() throws IOException {
+    ChargeRequest request = new ChargeRequest.Builder(1_00, CurrencyCode.CAD)
+        .restrictTendersTo(CASH)
+        .autoReturn(4, SECONDS)
+        .enforceBusinessLocation("location")
+        .customerId("customerId")
+        .requestMetadata("metadata")
+        .note("note")
+        .build();
+    start(request);
+
+    ChargeJournal reopened = ChargeJournal.open(file);
+
+    assertThat(reopened.orphanedCharges()).hasSize(1);
+    ChargeJournal.OrphanedCharge orphan = reopened.orphanedCharges().get(0);
+    assertThat(orphan.chargeRequest).isEqualTo(request);
+    assertThat(orphan.startedAtMillis).isPositive();
+  }
+
+  @Test public void createdChargeIsNotRecordedUntilStarted() throws IOException {
+    Intent chargeIntent = client.createChargeIntent(request("metadata"));
+
+    assertThat(ChargeJournal.open(file).orphanedCharges()).isEmpty();
+    assertThat(journal.onChargeStarted(chargeIntent)).isTrue();
+    assertThat(ChargeJournal.open(file).orphanedCharges()).hasSize(1);
+    assertThat(journal.onChargeStarted(chargeIntent)).isFalse();
+  }
+
+  @Test public void intentOfOtherClientIsNotRecorded() throws IOException {
+    assertThat(journal.onChargeStarted(chargeIntent("metadata"))).isFalse();
+
+    assertThat(ChargeJournal.open(file).orphanedCharges()).isEmpty();
+  }
+
+  @Test public void parsedChargesAreNotOrphaned() throws IOException {
+    Intent successIntent = start(request("success"));
+    Intent errorIntent = start(request("error"));
+    Intent data = new Intent();
+    when(posClient.parseChargeSuccess(data))
+        .thenReturn(new ChargeRequest.Success("client", "server", metadataOf(successIntent)));
+    when(posClient.parseChargeError(data)).thenReturn(
+        new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", metadataOf(errorIntent)));
+
+    assertThat(client.parseChargeSuccess(data).requestMetadata).isEqualTo("success");
+    assertThat(client.parseChargeError(data).requestMetadata).isEqualTo("error");
+
+    assertThat(ChargeJournal.open(file).orphanedCharges()).isEmpty();
+  }
+
+  @Test public void resultOfOtherClientIsUnchanged() {
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", "metadata");
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+
+    assertThat(client.parseChargeSuccess(data)).isSameAs(success);
+  }
+
+  @Test public void noResultErrorLeavesChargeOrphaned() throws IOException {
+    start(request(null));
+    Intent data = new Intent();
+    when(posClient.parseChargeError(data))
+        .thenReturn(new ChargeRequest.Error(NO_RESULT, "no result", null));
+
+    client.parseChargeError(data);
+
+    assertThat(ChargeJournal.open(file).orphanedCharges()).hasSize(1);
+  }
+
+  @Test public void completesChargeOfResultAmongChargesWithSameMetadata() throws IOException {
+    start(request(null));
+    Intent second = start(new ChargeRequest.Builder(2_00, CurrencyCode.USD).build());
+    Intent data = new Intent();
+    when(posClient.parseChargeSuccess(data))
+        .thenReturn(new ChargeRequest.Success("client", "server", metadataOf(second)));
+
+    assertThat(client.parseChargeSuccess(data).requestMetadata).isNull();
+
+    assertThat(ChargeJournal.open(file).orphanedCharges()).extracting(
+        orphan -> orphan.chargeRequest.totalAmount).containsExactly(1_00);
+  }
+
+  @Test public void templateChargeRecordedWithItsAmountAndMetadata() throws IOException {
+    ChargeTemplate template = new ChargeTemplate(new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .note("note")
+        .requestMetadata("template")
+        .build());
+
+    journal.onChargeStarted(client.createChargeIntent(template, 3_00, "metadata"));
+
+    ChargeRequest orphan = ChargeJournal.open(file).orphanedCharges().get(0).chargeRequest;
+    assertThat(orphan.totalAmount).isEqualTo(3_00);
+    assertThat(orphan.requestMetadata).isEqualTo("metadata");
+    assertThat(orphan.note).isEqualTo("note");
+  }
+
+  @Test public void resultAfterRestartCompletesOrphan() throws IOException {
+    Intent chargeIntent = start(request("metadata"));
+    ChargeJournal reopened = ChargeJournal.open(file);
+    Intent data = new Intent();
+    when(posClient.parseChargeSuccess(data))
+        .thenReturn(new ChargeRequest.Success("client", "server", metadataOf(chargeIntent)));
+
+    reopened.wrap(posClient).parseChargeSuccess(data);
+
+    assertThat(reopened.orphanedCharges()).isEmpty();
+    assertThat(ChargeJournal.open(file).orphanedCharges()).isEmpty();
+  }
+
+  @Test public void dismissedOrphanIsRemoved() throws IOException {
+    start(request("first"));
+    start(request("second"));
+    ChargeJournal reopened = ChargeJournal.open(file);
+
+    reopened.dismiss(reopened.orphanedCharges().get(0));
+
+    assertThat(reopened.orphanedCharges()).extracting(orphan -> orphan.chargeRequest)
+        .containsExactly(request("second"));
+    assertThat(ChargeJournal.open(file).orphanedCharges()).extracting(
+        orphan -> orphan.chargeRequest).containsExactly(request("second"));
+  }
+
+  @Test public void compactsWhenFull() throws IOException {
+    long initialLength = file.length();
+    Intent data = new Intent();
+    for (int i = 0; i < 1_000; i++) {
+      Intent chargeIntent = start(request("metadata" + i));
+      when(posClient.parseChargeSuccess(data))
+          .thenReturn(new ChargeRequest.Success("client", "server", metadataOf(chargeIntent)));
+      client.parseChargeSuccess(data);
+    }
+    start(request("open"));
+
+    assertThat(file.length()).isEqualTo(initialLength);
+    assertThat(ChargeJournal.open(file).orphanedCharges()).extracting(
+        orphan -> orphan.chargeRequest).containsExactly(request("open"));
+  }
+
+  @Test public void growsWhenOpenChargesFillHalfOfTheFile() throws IOException {
+    long initialLength = file.length();
+    for (int i = 0; i < 1_000; i++) {
+      start(request("metadata" + i));
+    }
+
+    assertThat(file.length()).isGreaterThan(initialLength);
+    assertThat(ChargeJournal.open(file).orphanedCharges()).hasSize(1_000);
+  }
+
+  @Test public void ignoresRecordCutShort() throws IOException {
+    start(request("first"));
+    journal.close();
+    // A record whose length was never written, because the process died while writing it.
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    int end = bytes.length;
+    while (bytes[end - 1] == 0) {
+      end--;
+    }
+    byte[] payload = new byte[64];
+    Arrays.fill(payload, (byte) 1);
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.seek(end + 4);
+      randomAccessFile.write(payload);
+    }
+
+    ChargeJournal reopened = ChargeJournal.open(file);
+    reopened.onChargeStarted(reopened.wrap(posClient).createChargeIntent(request("second")));
+
+    assertThat(ChargeJournal.open(file).orphanedCharges()).extracting(
+        orphan -> orphan.chargeRequest).containsExactly(request("first"), request("second"));
+  }
+
+  @Test(expected = IOException.class) public void rejectsOtherFiles() throws IOException {
+    File other = temporaryFolder.newFile();
+    Files.write(other.toPath(), "Not a journal".getBytes(UTF_8));
+    ChargeJournal.open(other);
+  }
+
+  @Test(expected = IllegalStateException.class) public void closedJournalThrows() {
+    journal.close();
+    client.createChargeIntent(request("metadata"));
+  }
+
+  /** Creates a charge intent with the client, and records it as started. */
+  private Intent start(ChargeRequest chargeRequest) {
+    Intent chargeIntent = client.createChargeIntent(chargeRequest);
+    assertThat(journal.onChargeStarted(chargeIntent)).isTrue();
+    return chargeIntent;
+  }
+
+  /** An intent with the request metadata sent to Point of Sale, which returns it in results. */
+  private static Intent chargeIntent(String requestMetadata) {
+    return new Intent().putExtra(EXTRA_REQUEST_METADATA, requestMetadata);
+  }
+
+  private static String metadataOf(Intent chargeIntent) {
+    return chargeIntent.getStringExtra(EXTRA_REQUEST_METADATA);
+  }
+
+  private static ChargeRequest request(String requestMetadata) {
+    return new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .requestMetadata(requestMetadata)
+        .build();
+  }
+}
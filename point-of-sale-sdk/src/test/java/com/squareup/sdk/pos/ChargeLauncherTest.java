@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import androidx.activity.result.ActivityResultRegistry;
+import androidx.activity.result.contract.ActivityResultContract;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.core.app.ActivityOptionsCompat;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+import androidx.lifecycle.ViewModelStore;
+import androidx.lifecycle.ViewModelStoreOwner;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.DISABLED;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.NO_RESULT;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_CANCELED;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class) //
+public class ChargeLauncherTest {
+
+  @Mock PosClient posClient;
+  TestRegistry registry;
+  List<Runnable> resultTasks;
+  String key;
+  ChargeRequest request;
+  Intent chargeIntent;
+
+  @Before public void setUp() {
+    initMocks(this);
+    registry = new TestRegistry();
+    resultTasks = new ArrayList<>();
+    key = "test";
+    request = new ChargeRequest.Builder(1_00, CurrencyCode.USD).build();
+    chargeIntent = new Intent();
+    when(posClient.createChargeIntent(request)).thenReturn(chargeIntent);
+  }
+
+  @Test public void launchesChargeIntent() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    assertThat(registry.launched).containsExactly(chargeIntent);
+    assertThat(future).isNotDone();
+    assertThat(launcher.isChargeInProgress()).isTrue();
+  }
+
+  @Test public void completesWithSuccessOnResultExecutor() throws Exception {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", null);
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_OK, data);
+
+    assertThat(future).isNotDone();
+    assertThat(launcher.isChargeInProgress()).isFalse();
+    runResultTasks();
+    assertThat(future.get()).isSameAs(success);
+  }
+
+  @Test public void completesExceptionallyWithError() throws Exception {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    Intent data = new Intent();
+    ChargeRequest.Error error = new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", null);
+    when(posClient.parseChargeError(data)).thenReturn(error);
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_CANCELED, data);
+    runResultTasks();
+
+    assertThat(chargeException(future).error).isSameAs(error);
+  }
+
+  @Test public void missingResultIsNoResultError() throws Exception {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_CANCELED, null);
+    runResultTasks();
+
+    assertThat(chargeException(future).error.code).isEqualTo(NO_RESULT);
+  }
+
+  @Test public void parseFailureCompletesExceptionally() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    Intent data = new Intent();
+    when(posClient.parseChargeSuccess(data)).thenThrow(new IllegalArgumentException());
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_OK, data);
+    runResultTasks();
+
+    assertThat(future).isCompletedExceptionally();
+  }
+
+  @Test public void missingPointOfSaleCompletesExceptionally() {
+    when(posClient.createChargeIntent(request)).thenThrow(new ActivityNotFoundException());
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    assertThat(future).isCompletedExceptionally();
+    assertThat(launcher.isChargeInProgress()).isFalse();
+    assertThat(registry.launched).isEmpty();
+  }
+
+  @Test public void rejectedChargeCompletesExceptionally() throws Exception {
+    ChargeRequest.Error error = new ChargeRequest.Error(DISABLED, "disabled", null);
+    when(posClient.createChargeIntent(request)).thenThrow(new ChargeRejectedException(error));
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    assertThat(chargeException(future).error).isSameAs(error);
+    assertThat(launcher.isChargeInProgress()).isFalse();
+    assertThat(registry.launched).isEmpty();
+  }
+
+  @Test(expected = IllegalStateException.class) public void secondChargeInProgressThrows() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    launcher.charge(request);
+    launcher.charge(request);
+  }
+
+  @Test public void duplicateChargeReturnsFirstFuture() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+
+    CompletableFuture<ChargeRequest.Success> first = launcher.charge(request, key);
+    CompletableFuture<ChargeRequest.Success> second =
+        launcher.charge(request.newBuilder().build(), key);
+
+    assertThat(second).isSameAs(first);
+    assertThat(registry.launched).containsExactly(chargeIntent);
+  }
+
+  @Test public void duplicateChargeWithinWindowReturnsSuccess() throws Exception {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", null);
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+    launcher.charge(request, key);
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_OK, data);
+    runResultTasks();
+
+    ShadowSystemClock.advanceBy(Duration.ofSeconds(9));
+    assertThat(launcher.charge(request, key).get()).isSameAs(success);
+    assertThat(registry.launched).hasSize(1);
+
+    ShadowSystemClock.advanceBy(Duration.ofSeconds(1));
+    assertThat(launcher.charge(request, key)).isNotDone();
+    assertThat(registry.launched).hasSize(2);
+  }
+
+  @Test public void failedChargeCanStartAgain() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    Intent data = new Intent();
+    when(posClient.parseChargeError(data))
+        .thenReturn(new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", null));
+    CompletableFuture<ChargeRequest.Success> first = launcher.charge(request, key);
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_CANCELED, data);
+    runResultTasks();
+
+    CompletableFuture<ChargeRequest.Success> second = launcher.charge(request, key);
+
+    assertThat(second).isNotSameAs(first);
+    assertThat(registry.launched).hasSize(2);
+  }
+
+  @Test public void otherIdempotencyKeyIsNotDuplicate() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    launcher.charge(request, key);
+
+    try {
+      launcher.charge(request, key + "-other");
+      throw new AssertionError("Expected the charge to throw");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void nextChargeCanStartFromCompletion() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    Intent data = new Intent();
+    when(posClient.parseChargeSuccess(data))
+        .thenReturn(new ChargeRequest.Success("client", "server", null));
+    CompletableFuture<ChargeRequest.Success> second =
+        launcher.charge(request).thenCompose(success -> launcher.charge(request));
+
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_OK, data);
+    runResultTasks();
+
+    assertThat(registry.launched).hasSize(2);
+    assertThat(second).isNotDone();
+  }
+
+  @Test public void recreatedLauncherCompletesChargeInProgress() throws Exception {
+    TestOwner firstOwner = new TestOwner();
+    ChargeLauncher launcher = startLauncher(firstOwner);
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", null);
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    ChargeLauncher recreated = startLauncher(firstOwner.recreate());
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_OK, data);
+    runResultTasks();
+
+    assertThat(recreated.chargeInProgress()).isNull();
+    assertThat(future.get()).isSameAs(success);
+  }
+
+  @Test public void recreatedLauncherReturnsChargeInProgress() {
+    TestOwner firstOwner = new TestOwner();
+    CompletableFuture<ChargeRequest.Success> future = startLauncher(firstOwner).charge(request);
+
+    ChargeLauncher recreated = startLauncher(firstOwner.recreate());
+
+    assertThat(future).isNotDone();
+    assertThat(recreated.chargeInProgress()).isSameAs(future);
+  }
+
+  @Test public void duplicateChargeAfterRecreationReturnsFirstFuture() {
+    TestOwner firstOwner = new TestOwner();
+    CompletableFuture<ChargeRequest.Success> first =
+        startLauncher(firstOwner).charge(request, key);
+
+    ChargeLauncher recreated = startLauncher(firstOwner.recreate());
+
+    assertThat(recreated.charge(request, key)).isSameAs(first);
+    assertThat(registry.launched).hasSize(1);
+  }
+
+  @Test public void finishedOwnerCancelsCharge() {
+    TestOwner owner = new TestOwner();
+    ChargeLauncher launcher = startLauncher(owner);
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    owner.finish();
+
+    assertThat(future).isCancelled();
+  }
+
+  @Test public void finishedOwnerKeepsChargeOfOtherOwner() {
+    TestOwner finishing = new TestOwner();
+    new ChargeLauncher(posClient, new TestRegistry(), finishing, resultTasks::add, key);
+    ChargeLauncher other = startLauncher(new TestOwner());
+    CompletableFuture<ChargeRequest.Success> future = other.charge(request);
+
+    finishing.finish();
+
+    assertThat(future).isNotDone();
+    assertThat(other.isChargeInProgress()).isTrue();
+  }
+
+  @Test public void ownersDoNotShareCharges() {
+    CompletableFuture<ChargeRequest.Success> first = startLauncher(new TestOwner())
+        .charge(request, key);
+    TestOwner otherOwner = new TestOwner();
+    ChargeLauncher other =
+        new ChargeLauncher(posClient, new TestRegistry(), otherOwner, resultTasks::add, key);
+
+    assertThat(other.isChargeInProgress()).isFalse();
+    assertThat(other.charge(request, key)).isNotSameAs(first);
+  }
+
+  @Test public void cancelFailsFutureAndAllowsNextCharge() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+
+    assertThat(launcher.cancel()).isTrue();
+
+    assertThat(future).isCancelled();
+    assertThat(launcher.isChargeInProgress()).isFalse();
+    assertThat(launcher.cancel()).isFalse();
+    launcher.charge(request);
+    assertThat(registry.launched).hasSize(2);
+  }
+
+  @Test public void resultAfterCancelIsStillParsed() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    CompletableFuture<ChargeRequest.Success> future = launcher.charge(request);
+    launcher.cancel();
+    Intent data = new Intent();
+
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_CANCELED, data);
+    runResultTasks();
+
+    verify(posClient).parseChargeError(data);
+    assertThat(future).isCancelled();
+  }
+
+  @Test public void resultWithoutFutureIsStillParsed() {
+    // A charge started by a previous process, whose future is gone.
+    registry.register(key, new ActivityResultContracts.StartActivityForResult(), result -> {
+    }).launch(chargeIntent);
+    startLauncher(new TestOwner());
+    Intent data = new Intent();
+
+    registry.dispatchResult(registry.lastRequestCode, Activity.RESULT_CANCELED, data);
+    runResultTasks();
+
+    verify(posClient).parseChargeError(data);
+  }
+
+  @Test(expected = NullPointerException.class) public void nullRequestThrows() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    //noinspection ConstantConditions
+    launcher.charge((ChargeRequest) null);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void negativeTemplateAmountThrows() {
+    ChargeLauncher launcher = startLauncher(new TestOwner());
+    launcher.charge(new ChargeTemplate(request), -1, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void ownerWithoutViewModelStoreThrows() {
+    new ChargeLauncher(posClient, registry, mock(LifecycleOwner.class), resultTasks::add, key);
+  }
+
+  @Test(expected = IllegalStateException.class) public void registeringStartedOwnerThrows() {
+    TestOwner owner = new TestOwner();
+    owner.lifecycle.setCurrentState(Lifecycle.State.STARTED);
+    new ChargeLauncher(posClient, registry, owner, resultTasks::add, key);
+  }
+
+  /** Registers before the owner starts, as an activity does in onCreate(). */
+  private ChargeLauncher startLauncher(TestOwner owner) {
+    ChargeLauncher launcher = new ChargeLauncher(posClient, registry, owner, resultTasks::add, key);
+    owner.lifecycle.setCurrentState(Lifecycle.State.STARTED);
+    return launcher;
+  }
+
+  private void runResultTasks() {
+    for (Runnable task : new ArrayList<>(resultTasks)) {
+      task.run();
+    }
+    resultTasks.clear();
+  }
+
+  private static ChargeException chargeException(CompletableFuture<?> future)
+      throws InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      return (ChargeException) e.getCause();
+    }
+    throw new AssertionError("Expected the future to fail");
+  }
+
+  /** Keeps its view models when recreated and clears them when finished, like an activity. */
+  static final class TestOwner implements LifecycleOwner, ViewModelStoreOwner {
+    final LifecycleRegistry lifecycle = LifecycleRegistry.createUnsafe(this);
+    final ViewModelStore viewModelStore;
+
+    TestOwner() {
+      this(new ViewModelStore());
+    }
+
+    private TestOwner(ViewModelStore viewModelStore) {
+      this.viewModelStore = viewModelStore;
+      lifecycle.setCurrentState(Lifecycle.State.CREATED);
+    }
+
+    /** Destroys this owner for a configuration change and returns the new one. */
+    TestOwner recreate() {
+      lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+      return new TestOwner(viewModelStore);
+    }
+
+    void finish() {
+      lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+      viewModelStore.clear();
+    }
+
+    @Override public Lifecycle getLifecycle() {
+      return lifecycle;
+    }
+
+    @Override public ViewModelStore getViewModelStore() {
+      return viewModelStore;
+    }
+  }
+
+  static final class TestRegistry extends ActivityResultRegistry {
+    final List<Object> launched = new ArrayList<>();
+    int lastRequestCode;
+
+    @Override public <I, O> void onLaunch(int requestCode, ActivityResultContract<I, O> contract,
+        I input, ActivityOptionsCompat options) {
+      launched.add(input);
+      lastRequestCode = requestCode;
+    }
+  }
+}
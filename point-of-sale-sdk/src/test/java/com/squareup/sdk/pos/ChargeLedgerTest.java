@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Intent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_CANCELED;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class) //
+public class ChargeLedgerTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Mock PosClient posClient;
+  File file;
+  ChargeLedger ledger;
+
+  @Before public void setUp() throws IOException {
+    initMocks(this);
+    file = new File(temporaryFolder.getRoot(), "charges.ledger");
+    ledger = ChargeLedger.open(file);
+  }
+
+  @Test public void findsSuccessByClientTransactionId() {
+    ledger.record(new ChargeRequest.Success("client1", "server1", "metadata1"));
+    ledger.record(new ChargeRequest.Success("client2", null, "metadata2"));
+
+    ChargeLedger.Entry entry = ledger.findByClientTransactionId("client2");
+
+    assertThat(entry.success.clientTransactionId).isEqualTo("client2");
+    assertThat(entry.success.serverTransactionId).isNull();
+    assertThat(entry.error).isNull();
+    assertThat(entry.requestMetadata()).isEqualTo("metadata2");
+    assertThat(entry.recordedAtMillis).isPositive();
+    assertThat(ledger.findByClientTransactionId("client3")).isNull();
+  }
+
+  @Test public void findsEveryResultByRequestMetadata() {
+    ledger.record(new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", "metadata"));
+    ledger.record(new ChargeRequest.Success("other", "server", "other"));
+    ledger.record(new ChargeRequest.Success("client", "server", "metadata"));
+
+    assertThat(ledger.findByRequestMetadata("metadata")).extracting(
+        entry -> entry.error != null ? entry.error.code.name() : entry.success.clientTransactionId)
+        .containsExactly("TRANSACTION_CANCELED", "client");
+    assertThat(ledger.findByRequestMetadata("unknown")).isEmpty();
+  }
+
+  @Test public void recordsEachSuccessOnce() {
+    assertThat(ledger.record(new ChargeRequest.Success("client", "server", "metadata"))).isTrue();
+    assertThat(ledger.record(new ChargeRequest.Success("client", "server", "metadata"))).isFalse();
+
+    assertThat(ledger.size()).isEqualTo(1);
+    assertThat(ledger.findByRequestMetadata("metadata")).hasSize(1);
+  }
+
+  @Test public void resultsSurviveReopening() throws IOException {
+    ledger.record(new ChargeRequest.Success("client", "server", "metadata"));
+    ledger.record(new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", "metadata"));
+
+    ChargeLedger reopened = ChargeLedger.open(file);
+
+    assertThat(reopened.size()).isEqualTo(2);
+    assertThat(reopened.findByClientTransactionId("client").success.serverTransactionId)
+        .isEqualTo("server");
+    ChargeLedger.Entry error = reopened.findByRequestMetadata("metadata").get(1);
+    assertThat(error.error.code).isEqualTo(TRANSACTION_CANCELED);
+    assertThat(error.error.debugDescription).isEqualTo("canceled");
+    assertThat(reopened.entries().get(0).recordedAtMillis)
+        .isEqualTo(ledger.entries().get(0).recordedAtMillis);
+  }
+
+  @Test public void growsToHoldManyResults() throws IOException {
+    long initialLength = file.length();
+    for (int i = 0; i < 10_000; i++) {
+      ledger.record(new ChargeRequest.Success("client" + i, "server" + i, "metadata" + i));
+    }
+
+    ChargeLedger reopened = ChargeLedger.open(file);
+
+    assertThat(file.length()).isGreaterThan(initialLength);
+    assertThat(reopened.size()).isEqualTo(10_000);
+    assertThat(reopened.findByClientTransactionId("client4242").requestMetadata())
+        .isEqualTo("metadata4242");
+  }
+
+  @Test public void compactsOnExecutorWhileRecording() throws IOException {
+    List<Runnable> compactions = new ArrayList<>();
+    ledger = new ChargeLedger.Builder(file).compactOn(compactions::add).open();
+    for (int i = 0; i < 10_000; i++) {
+      ledger.record(new ChargeRequest.Success("client" + i, "server" + i, "metadata" + i));
+    }
+
+    assertThat(compactions).hasSize(1);
+    compactions.get(0).run();
+
+    ChargeLedger reopened = ChargeLedger.open(file);
+    assertThat(reopened.size()).isEqualTo(10_000);
+    assertThat(reopened.findByClientTransactionId("client9999").requestMetadata())
+        .isEqualTo("metadata9999");
+    assertThat(new File(file.getPath() + ".rewrite")).doesNotExist();
+  }
+
+  @Test public void compactsInlineWhenExecutorRejects() throws IOException {
+    ledger = new ChargeLedger.Builder(file).compactOn(command -> {
+      throw new RejectedExecutionException();
+    }).open();
+    for (int i = 0; i < 10_000; i++) {
+      ledger.record(new ChargeRequest.Success("client" + i, "server" + i, "metadata" + i));
+    }
+
+    ChargeLedger reopened = ChargeLedger.open(file);
+    assertThat(reopened.size()).isEqualTo(10_000);
+    assertThat(reopened.findByClientTransactionId("client9999").requestMetadata())
+        .isEqualTo("metadata9999");
+  }
+
+  @Test public void compactionStartedBeforeRemovalIsAbandoned() throws IOException {
+    List<Runnable> compactions = new ArrayList<>();
+    ledger = new ChargeLedger.Builder(file).compactOn(compactions::add).open();
+    for (int i = 0; compactions.isEmpty(); i++) {
+      ledger.record(new ChargeRequest.Success("client" + i, "server" + i, "metadata" + i));
+    }
+
+    int removed = ledger.removeRecordedBefore(Long.MAX_VALUE);
+    compactions.get(0).run();
+
+    assertThat(removed).isPositive();
+    assertThat(ledger.size()).isZero();
+    assertThat(ChargeLedger.open(file).size()).isZero();
+  }
+
+  @Test public void removesExpiredResultsWhenRecording() throws IOException {
+    ledger = new ChargeLedger.Builder(file).retainFor(1, TimeUnit.MILLISECONDS).open();
+    ledger.record(new ChargeRequest.Success("old", "server", "metadata"));
+    long expiredAt = ledger.findByClientTransactionId("old").recordedAtMillis + 2;
+    while (System.currentTimeMillis() < expiredAt) {
+      Thread.yield();
+    }
+
+    ledger.record(new ChargeRequest.Success("new", "server", "metadata"));
+
+    assertThat(ledger.findByClientTransactionId("old")).isNull();
+    assertThat(ledger.findByRequestMetadata("metadata")).hasSize(1);
+    ChargeLedger reopened = ChargeLedger.open(file);
+    assertThat(reopened.size()).isEqualTo(1);
+    assertThat(reopened.findByClientTransactionId("new")).isNotNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void rejectsNonPositiveRetention() {
+    new ChargeLedger.Builder(file).retainFor(0, TimeUnit.DAYS);
+  }
+
+  @Test public void readsUnknownErrorCodeAsNull() throws IOException {
+    ledger.record(new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", "metadata"));
+    ledger.close();
+    // Replaces the code with one of the same length, as a later version of the SDK could write.
+    byte[] canceled = PosApi.ERROR_TRANSACTION_CANCELED.getBytes(StandardCharsets.UTF_16BE);
+    byte[] unknown = "com.squareup.pos.ERROR_TRANSACTION_REVERSED"
+        .getBytes(StandardCharsets.UTF_16BE);
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    int start = indexOf(bytes, canceled);
+    System.arraycopy(unknown, 0, bytes, start, unknown.length);
+    Files.write(file.toPath(), bytes);
+
+    ChargeLedger reopened = ChargeLedger.open(file);
+
+    ChargeLedger.Entry entry = reopened.findByRequestMetadata("metadata").get(0);
+    assertThat(entry.error.code).isNull();
+    assertThat(entry.error.debugDescription).isEqualTo("canceled");
+  }
+
+  @Test public void removesResultsRecordedBeforeTime() throws IOException {
+    ledger.record(new ChargeRequest.Success("old", "server", "metadata"));
+    long cutoff = ledger.findByClientTransactionId("old").recordedAtMillis + 1;
+    while (System.currentTimeMillis() < cutoff) {
+      Thread.yield();
+    }
+    ledger.record(new ChargeRequest.Success("new", "server", "metadata"));
+
+    assertThat(ledger.removeRecordedBefore(cutoff)).isEqualTo(1);
+
+    assertThat(ledger.findByClientTransactionId("old")).isNull();
+    assertThat(ledger.findByRequestMetadata("metadata")).hasSize(1);
+    ChargeLedger reopened = ChargeLedger.open(file);
+    assertThat(reopened.size()).isEqualTo(1);
+    assertThat(reopened.findByClientTransactionId("new")).isNotNull();
+  }
+
+  @Test public void wrappedClientRecordsParsedResults() {
+    PosClient client = ledger.wrap(posClient);
+    Intent data = new Intent();
+    when(posClient.parseChargeSuccess(data))
+        .thenReturn(new ChargeRequest.Success("client", "server", "metadata"));
+    when(posClient.parseChargeError(data))
+        .thenReturn(new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", "metadata"));
+
+    client.parseChargeSuccess(data);
+    client.parseChargeError(data);
+
+    assertThat(ledger.findByRequestMetadata("metadata")).hasSize(2);
+  }
+
+  @Test(expected = IOException.class) public void rejectsJournalFile() throws IOException {
+    File journalFile = new File(temporaryFolder.getRoot(), "charges.journal");
+    ChargeJournal.open(journalFile).close();
+    ChargeLedger.open(journalFile);
+  }
+
+  @Test(expected = IllegalStateException.class) public void closedLedgerThrows() {
+    ledger.close();
+    ledger.record(new ChargeRequest.Success("client", "server", "metadata"));
+  }
+
+  private static int indexOf(byte[] bytes, byte[] target) {
+    outer:
+    for (int i = 0; i <= bytes.length - target.length; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (bytes[i + j] != target[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    throw new AssertionError("Not found");
+  }
+}
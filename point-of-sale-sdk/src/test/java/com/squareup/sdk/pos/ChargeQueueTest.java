@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.NO_NETWORK;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.NO_RESULT;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_CANCELED;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.USER_NOT_LOGGED_IN;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class) //
+public class ChargeQueueTest {
+
+  @Mock PosClient posClient;
+  @Mock ChargeQueue.Callback callback;
+  List<Intent> startedCharges;
+  Map<ChargeRequest, Intent> chargeIntents;
+  ChargeQueue queue;
+
+  ChargeRequest first;
+  ChargeRequest second;
+  ChargeRequest third;
+
+  @Before public void setUp() {
+    initMocks(this);
+    startedCharges = new ArrayList<>();
+    chargeIntents = new HashMap<>();
+    first = request("first");
+    second = request("second");
+    third = request("third");
+    queue = new ChargeQueue(posClient, new ChargeQueue.Launcher() {
+      @Override public void startCharge(Intent chargeIntent) {
+        startedCharges.add(chargeIntent);
+      }
+    }, callback);
+  }
+
+  @Test public void startsFirstChargeRightAway() {
+    queue.enqueue(first);
+
+    assertThat(startedCharges).containsExactly(intentFor(first));
+    assertThat(queue.isChargeInProgress()).isTrue();
+    assertThat(queue.pendingCount()).isZero();
+  }
+
+  @Test public void waitsForChargeInProgress() {
+    queue.enqueue(first);
+    queue.enqueue(second);
+    queue.enqueue(third);
+
+    assertThat(startedCharges).containsExactly(intentFor(first));
+    assertThat(queue.pendingCount()).isEqualTo(2);
+  }
+
+  @Test public void startsNextChargeOnResult() {
+    queue.enqueue(first);
+    queue.enqueue(second);
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", "first");
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+
+    assertThat(queue.onChargeResult(Activity.RESULT_OK, data)).isTrue();
+
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(second));
+    assertThat(queue.isChargeInProgress()).isTrue();
+    assertThat(queue.pendingCount()).isZero();
+    verify(callback).onChargeSuccess(first, success);
+  }
+
+  @Test public void startsNextChargeBeforeCallingBack() {
+    queue.enqueue(first);
+    queue.enqueue(second);
+    Intent data = new Intent();
+    when(posClient.parseChargeSuccess(data))
+        .thenReturn(new ChargeRequest.Success("client", "server", "first"));
+
+    queue.onChargeResult(Activity.RESULT_OK, data);
+
+    InOrder inOrder = inOrder(posClient, callback);
+    inOrder.verify(posClient).createChargeIntent(second);
+    inOrder.verify(callback).onChargeSuccess(any(), any());
+  }
+
+  @Test public void drainsQueueInOrder() {
+    queue.enqueue(first);
+    queue.enqueue(second);
+    queue.enqueue(third);
+    Intent data = new Intent();
+    when(posClient.parseChargeError(data)).thenReturn(
+        new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", null));
+
+    queue.onChargeResult(Activity.RESULT_CANCELED, data);
+    queue.onChargeResult(Activity.RESULT_CANCELED, data);
+    queue.onChargeResult(Activity.RESULT_CANCELED, data);
+
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(second),
+        intentFor(third));
+    assertThat(queue.isChargeInProgress()).isFalse();
+    InOrder inOrder = inOrder(callback);
+    inOrder.verify(callback).onChargeError(argThat(first::equals), any());
+    inOrder.verify(callback).onChargeError(argThat(second::equals), any());
+    inOrder.verify(callback).onChargeError(argThat(third::equals), any());
+  }
+
+  @Test public void missingResultIsNoResultError() {
+    queue.enqueue(first);
+
+    queue.onChargeResult(Activity.RESULT_CANCELED, null);
+
+    verify(callback).onChargeError(argThat(first::equals),
+        argThat(error -> error.code == NO_RESULT));
+    assertThat(queue.isChargeInProgress()).isFalse();
+  }
+
+  @Test public void ignoresResultWithNoChargeInProgress() {
+    assertThat(queue.onChargeResult(Activity.RESULT_OK, new Intent())).isFalse();
+
+    verify(posClient, never()).parseChargeSuccess(any());
+    verify(callback, never()).onChargeSuccess(any(), any());
+  }
+
+  @Test public void chargeThatCannotStartIsDropped() {
+    when(posClient.createChargeIntent(first)).thenThrow(new ActivityNotFoundException());
+    try {
+      queue.enqueue(first);
+    } catch (ActivityNotFoundException expected) {
+    }
+
+    queue.enqueue(second);
+
+    assertThat(startedCharges).containsExactly(intentFor(second));
+  }
+
+  @Test public void resultDeliveredWhenNextChargeCannotStart() {
+    queue.enqueue(first);
+    queue.enqueue(second);
+    when(posClient.createChargeIntent(second)).thenThrow(new ActivityNotFoundException());
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", "first");
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+
+    try {
+      queue.onChargeResult(Activity.RESULT_OK, data);
+    } catch (ActivityNotFoundException expected) {
+    }
+
+    verify(callback).onChargeSuccess(first, success);
+    assertThat(queue.isChargeInProgress()).isFalse();
+  }
+
+  @Test public void rejectedChargesFailWithoutStarting() {
+    queue.enqueue(first);
+    queue.enqueue(second);
+    queue.enqueue(third);
+    ChargeRequest.Error rejection =
+        new ChargeRequest.Error(USER_NOT_LOGGED_IN, "logged out", "second");
+    when(posClient.createChargeIntent(second)).thenThrow(new ChargeRejectedException(rejection));
+    Intent data = new Intent();
+    ChargeRequest.Error error = new ChargeRequest.Error(USER_NOT_LOGGED_IN, "logged out", "first");
+    when(posClient.parseChargeError(data)).thenReturn(error);
+
+    queue.onChargeResult(Activity.RESULT_CANCELED, data);
+
+    verify(callback).onChargeError(second, rejection);
+    verify(callback).onChargeError(first, error);
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(third));
+    assertThat(queue.pendingCount()).isZero();
+  }
+
+  @Test public void retriesTransientErrorWithSameRequest() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+    queue.enqueue(second);
+
+    failWith(queue, NO_NETWORK);
+
+    verify(callback, never()).onChargeError(any(), any());
+    assertThat(queue.isChargeInProgress()).isTrue();
+    assertThat(startedCharges).containsExactly(intentFor(first));
+
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(first));
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", "first");
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+    queue.onChargeResult(Activity.RESULT_OK, data);
+
+    verify(callback).onChargeSuccess(first, success);
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(first),
+        intentFor(second));
+  }
+
+  @Test public void doesNotRetryOtherErrors() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+
+    ChargeRequest.Error error = failWith(queue, TRANSACTION_CANCELED);
+
+    verify(callback).onChargeError(first, error);
+    assertThat(queue.isChargeInProgress()).isFalse();
+  }
+
+  @Test public void doesNotRetryUnknownErrors() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+
+    ChargeRequest.Error error = failWith(queue, null);
+
+    verify(callback).onChargeError(first, error);
+    assertThat(queue.isChargeInProgress()).isFalse();
+  }
+
+  @Test public void doesNotRetryMissingResult() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+
+    queue.onChargeResult(Activity.RESULT_CANCELED, null);
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+
+    verify(callback).onChargeError(argThat(first::equals),
+        argThat(error -> error.code == NO_RESULT));
+    assertThat(startedCharges).containsExactly(intentFor(first));
+  }
+
+  @Test public void deliversLastErrorAfterMaxRetries() {
+    ChargeQueue queue = retryingQueue(1);
+    queue.enqueue(first);
+    failWith(queue, NO_NETWORK);
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+
+    ChargeRequest.Error error = failWith(queue, NO_NETWORK);
+
+    verify(callback).onChargeError(first, error);
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(first));
+  }
+
+  @Test public void cancelRetryDeliversLastError() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+    ChargeRequest.Error error = failWith(queue, NO_NETWORK);
+
+    assertThat(queue.cancelRetry()).isTrue();
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+
+    verify(callback).onChargeError(first, error);
+    assertThat(startedCharges).containsExactly(intentFor(first));
+    assertThat(queue.isChargeInProgress()).isFalse();
+    assertThat(queue.cancelRetry()).isFalse();
+  }
+
+  @Test public void cancelRetryStartsNextCharge() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+    queue.enqueue(second);
+    ChargeRequest.Error error = failWith(queue, NO_NETWORK);
+
+    queue.cancelRetry();
+
+    verify(callback).onChargeError(first, error);
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(second));
+    assertThat(queue.isChargeInProgress()).isTrue();
+  }
+
+  @Test public void uninstallDuringRetryDropsEnqueuedCharges() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+    queue.enqueue(second);
+    queue.enqueue(third);
+    ChargeRequest.Error error = failWith(queue, NO_NETWORK);
+    ActivityNotFoundException notFound = new ActivityNotFoundException();
+    when(posClient.createChargeIntent(first)).thenThrow(notFound);
+
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+
+    InOrder inOrder = inOrder(callback);
+    inOrder.verify(callback).onChargeError(first, error);
+    inOrder.verify(callback).onChargeNotStarted(second, notFound);
+    inOrder.verify(callback).onChargeNotStarted(third, notFound);
+    assertThat(queue.isChargeInProgress()).isFalse();
+    assertThat(queue.pendingCount()).isZero();
+  }
+
+  @Test public void restoredQueueHandlesResultOfChargeInProgress() {
+    queue.enqueue(first);
+    queue.enqueue(second);
+    Bundle state = new Bundle();
+    queue.onSaveInstanceState(state);
+
+    ChargeQueue restored = newQueue(null);
+    restored.onRestoreInstanceState(state);
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", "first");
+    when(posClient.parseChargeSuccess(data)).thenReturn(success);
+
+    assertThat(restored.onChargeResult(Activity.RESULT_OK, data)).isTrue();
+
+    verify(callback).onChargeSuccess(first, success);
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(second));
+  }
+
+  @Test public void restoredQueueRetriesWaitingCharge() {
+    ChargeQueue queue = retryingQueue(2);
+    queue.enqueue(first);
+    failWith(queue, NO_NETWORK);
+    Bundle state = new Bundle();
+    queue.onSaveInstanceState(state);
+    queue.onDestroy();
+
+    ChargeQueue restored = retryingQueue(2);
+    restored.onRestoreInstanceState(state);
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+
+    assertThat(startedCharges).containsExactly(intentFor(first), intentFor(first));
+    assertThat(restored.isChargeInProgress()).isTrue();
+    verify(callback, never()).onChargeError(any(), any());
+  }
+
+  @Test public void restoringNullStateDoesNothing() {
+    queue.onRestoreInstanceState(null);
+
+    assertThat(queue.isChargeInProgress()).isFalse();
+  }
+
+  @Test(expected = IllegalStateException.class) public void restoringAfterEnqueueThrows() {
+    queue.enqueue(first);
+    queue.onRestoreInstanceState(new Bundle());
+  }
+
+  @Test(expected = NullPointerException.class) public void nullRequestThrows() {
+    //noinspection ConstantConditions
+    queue.enqueue(null);
+  }
+
+  private ChargeQueue retryingQueue(int maxRetries) {
+    return newQueue(new ChargeRetryPolicy.Builder()
+        .maxRetries(maxRetries)
+        .backoff(1, 1, TimeUnit.SECONDS)
+        .build());
+  }
+
+  private ChargeQueue newQueue(ChargeRetryPolicy retryPolicy) {
+    return new ChargeQueue(posClient, new ChargeQueue.Launcher() {
+      @Override public void startCharge(Intent chargeIntent) {
+        startedCharges.add(chargeIntent);
+      }
+    }, callback, retryPolicy);
+  }
+
+  private ChargeRequest.Error failWith(ChargeQueue queue, ChargeRequest.ErrorCode code) {
+    Intent data = new Intent();
+    ChargeRequest.Error error = new ChargeRequest.Error(code, "error", null);
+    when(posClient.parseChargeError(data)).thenReturn(error);
+    queue.onChargeResult(Activity.RESULT_CANCELED, data);
+    return error;
+  }
+
+  private ChargeRequest request(String requestMetadata) {
+    ChargeRequest request =
+        new ChargeRequest.Builder(1_00, CurrencyCode.USD).requestMetadata(requestMetadata).build();
+    Intent chargeIntent = mock(Intent.class);
+    chargeIntents.put(request, chargeIntent);
+    when(posClient.createChargeIntent(request)).thenReturn(chargeIntent);
+    return request;
+  }
+
+  private Intent intentFor(ChargeRequest request) {
+    return chargeIntents.get(request);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.squareup.sdk.pos;
 
+import java.util.Collections;
 import org.junit.Test;
 
 import static com.squareup.sdk.pos.ChargeRequest.TenderType.CARD;
@@ -46,6 +47,19 @@ public class ChargeRequestTest {
     assertThat(request.tenderTypes).containsOnly(CARD, CARD_ON_FILE, CASH, OTHER, PAYPAY);
   }
 
+  @Test public void requestsShareTenderTypes() {
+    ChargeRequest request =
+        new ChargeRequest.Builder(1_00, USD).restrictTendersTo(CASH, CARD).build();
+    ChargeRequest otherRequest =
+        new ChargeRequest.Builder(2_00, USD).restrictTendersTo(CARD, CASH).build();
+    assertThat(request.tenderTypes).containsExactly(CARD, CASH);
+    assertThat(otherRequest.tenderTypes).isSameAs(request.tenderTypes);
+  }
+
+  @Test(expected = UnsupportedOperationException.class) public void tenderTypesAreUnmodifiable() {
+    new ChargeRequest.Builder(1_00, USD).build().tenderTypes.clear();
+  }
+
   @Test public void requestHasNoTimeoutByDefault() {
     ChargeRequest request = new ChargeRequest.Builder(1_00, USD).build();
     assertThat(request.autoReturnMillis).isEqualTo(AUTO_RETURN_NO_TIMEOUT);
@@ -149,6 +163,93 @@ public class ChargeRequestTest {
     assertThat(updatedRequest.note).isEqualTo("note");
   }
 
+  @Test public void parsesEveryErrorCode() {
+    for (ChargeRequest.ErrorCode errorCode : ChargeRequest.ErrorCode.values()) {
+      assertThat(ChargeRequest.ErrorCode.parse(errorCode.apiCode)).isSameAs(errorCode);
+    }
+  }
+
+  @Test public void parsesUnsupportedApiVersionWithoutErrorPrefix() {
+    assertThat(ChargeRequest.ErrorCode.parse("com.squareup.pos.UNSUPPORTED_API_VERSION"))
+        .isSameAs(ChargeRequest.ErrorCode.UNSUPPORTED_API_VERSION);
+  }
+
+  @Test public void unknownErrorCodesParseToNull() {
+    assertThat(ChargeRequest.ErrorCode.parse(null)).isNull();
+    assertThat(ChargeRequest.ErrorCode.parse("ERROR_NO_NETWORK")).isNull();
+    assertThat(ChargeRequest.ErrorCode.parse("com.squareup.pos.")).isNull();
+    assertThat(ChargeRequest.ErrorCode.parse("com.squareup.pos.ERROR_SOMETHING_NEW")).isNull();
+    assertThat(ChargeRequest.ErrorCode.parse("com.example.pos.ERROR_NO_NETWORK")).isNull();
+  }
+
+  @Test public void classifiesErrorCodes() {
+    assertThat(ChargeRequest.ErrorCode.NO_NETWORK.category)
+        .isEqualTo(ChargeRequest.ErrorCategory.TRANSIENT);
+    assertThat(ChargeRequest.ErrorCode.NO_RESULT.category)
+        .isEqualTo(ChargeRequest.ErrorCategory.TRANSIENT);
+    assertThat(ChargeRequest.ErrorCode.NO_EMPLOYEE_LOGGED_IN.category)
+        .isEqualTo(ChargeRequest.ErrorCategory.USER_ACTION);
+    assertThat(ChargeRequest.ErrorCode.TRANSACTION_CANCELED.category)
+        .isEqualTo(ChargeRequest.ErrorCategory.CANCELED);
+    assertThat(ChargeRequest.ErrorCode.USER_NOT_LOGGED_IN.category)
+        .isEqualTo(ChargeRequest.ErrorCategory.UNAVAILABLE);
+    assertThat(ChargeRequest.ErrorCode.INVALID_REQUEST.category)
+        .isEqualTo(ChargeRequest.ErrorCategory.PERMANENT);
+  }
+
+  @Test public void lenientBuilderListsEveryViolation() {
+    ChargeRequest.ValidationResult result = ChargeRequest.Builder.lenient(-1, null)
+        .restrictTendersTo()
+        .note(longNote())
+        .autoReturn(1, SECONDS)
+        .tryBuild();
+
+    assertThat(result.isValid()).isFalse();
+    assertThat(result.chargeRequest).isNull();
+    assertThat(result.violations()).containsExactly(ChargeRequest.Violation.values());
+  }
+
+  @Test public void lenientBuilderBuildsValidRequest() {
+    ChargeRequest.ValidationResult result = ChargeRequest.Builder.lenient(1_00, USD)
+        .note("note")
+        .tryBuild();
+
+    assertThat(result.isValid()).isTrue();
+    assertThat(result.violations()).isEmpty();
+    assertThat(result.chargeRequest)
+        .isEqualTo(new ChargeRequest.Builder(1_00, USD).note("note").build());
+  }
+
+  @Test public void validInputClearsViolation() {
+    ChargeRequest.ValidationResult result = ChargeRequest.Builder.lenient(1_00, USD)
+        .note(longNote())
+        .note("note")
+        .restrictTendersTo(Collections.<ChargeRequest.TenderType>emptySet())
+        .restrictTendersTo(CASH)
+        .tryBuild();
+
+    assertThat(result.isValid()).isTrue();
+  }
+
+  @Test public void invalidResultsAreShared() {
+    ChargeRequest.ValidationResult first =
+        ChargeRequest.Builder.lenient(1_00, USD).note(longNote()).tryBuild();
+    ChargeRequest.ValidationResult second =
+        ChargeRequest.Builder.lenient(1_00, USD).note(longNote()).tryBuild();
+
+    assertThat(second).isSameAs(first);
+    assertThat(first.hasViolation(ChargeRequest.Violation.NOTE_TOO_LONG)).isTrue();
+    assertThat(first.hasViolation(ChargeRequest.Violation.NEGATIVE_TOTAL_AMOUNT)).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void lenientBuildWithViolationsThrows() {
+    ChargeRequest.Builder.lenient(-1, USD).build();
+  }
+
+  @Test public void strictBuilderTryBuildIsValid() {
+    assertThat(new ChargeRequest.Builder(1_00, USD).tryBuild().isValid()).isTrue();
+  }
+
   private String longNote() {
     StringBuilder sb = new StringBuilder();
     for (int i = 0; i < 501; i++) {
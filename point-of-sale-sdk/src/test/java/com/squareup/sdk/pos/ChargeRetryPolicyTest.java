@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.INVALID_REQUEST;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.NO_NETWORK;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.NO_RESULT;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_ALREADY_IN_PROGRESS;
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.USER_NOT_LOGGED_IN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChargeRetryPolicyTest {
+
+  @Test public void retriesTransientErrorsOnly() {
+    ChargeRetryPolicy policy = new ChargeRetryPolicy.Builder().build();
+
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isTrue();
+    assertThat(policy.shouldRetry(error(TRANSACTION_ALREADY_IN_PROGRESS), 0)).isFalse();
+    assertThat(policy.shouldRetry(error(USER_NOT_LOGGED_IN), 0)).isFalse();
+    assertThat(policy.shouldRetry(error(INVALID_REQUEST), 0)).isFalse();
+  }
+
+  @Test public void unknownErrorsAreNotRetried() {
+    ChargeRetryPolicy policy = new ChargeRetryPolicy.Builder().build();
+
+    assertThat(policy.shouldRetry(error(null), 0)).isFalse();
+  }
+
+  @Test public void noResultIsOnlyRetriedWhenEnabled() {
+    assertThat(new ChargeRetryPolicy.Builder().build().shouldRetry(error(NO_RESULT), 0)).isFalse();
+
+    ChargeRetryPolicy policy = new ChargeRetryPolicy.Builder().retryNoResult(true).build();
+    assertThat(policy.shouldRetry(error(NO_RESULT), 0)).isTrue();
+  }
+
+  @Test public void stopsAfterMaxRetries() {
+    ChargeRetryPolicy policy = new ChargeRetryPolicy.Builder().maxRetries(2).build();
+
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 1)).isTrue();
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 2)).isFalse();
+  }
+
+  @Test public void budgetLimitsRetries() {
+    ChargeRetryPolicy policy = new ChargeRetryPolicy.Builder().retryBudget(2, 0.5f).build();
+
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isTrue();
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isTrue();
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isFalse();
+
+    policy.onCharge();
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isFalse();
+    policy.onCharge();
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isTrue();
+  }
+
+  @Test public void budgetIsCapped() {
+    ChargeRetryPolicy policy = new ChargeRetryPolicy.Builder().retryBudget(1, 1).build();
+    policy.onCharge();
+    policy.onCharge();
+
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isTrue();
+    assertThat(policy.shouldRetry(error(NO_NETWORK), 0)).isFalse();
+  }
+
+  @Test public void backoffIsJitteredBelowExponentialCeiling() {
+    ChargeRetryPolicy policy =
+        new ChargeRetryPolicy.Builder().backoff(100, 1_000, TimeUnit.MILLISECONDS).build();
+    long maxFirst = 0;
+    for (int i = 0; i < 1_000; i++) {
+      long first = policy.backoffMillis(0);
+      assertThat(first).isBetween(0L, 100L);
+      maxFirst = Math.max(maxFirst, first);
+      assertThat(policy.backoffMillis(2)).isBetween(0L, 400L);
+      assertThat(policy.backoffMillis(60)).isBetween(0L, 1_000L);
+    }
+    assertThat(maxFirst).isGreaterThan(50L);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void negativeMaxRetriesThrows() {
+    new ChargeRetryPolicy.Builder().maxRetries(-1);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void initialAboveMaxBackoffThrows() {
+    new ChargeRetryPolicy.Builder().backoff(2, 1, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void emptyBudgetThrows() {
+    new ChargeRetryPolicy.Builder().retryBudget(0, 1);
+  }
+
+  private static ChargeRequest.Error error(ChargeRequest.ErrorCode code) {
+    return new ChargeRequest.Error(code, "error", null);
+  }
+}
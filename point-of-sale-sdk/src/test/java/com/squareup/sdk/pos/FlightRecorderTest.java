@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.sdk.pos.FlightRecorder.Event.CHARGE_FAILED;
+import static com.squareup.sdk.pos.FlightRecorder.Event.CHARGE_INTENT_CREATED;
+import static com.squareup.sdk.pos.FlightRecorder.Event.CHARGE_SUCCEEDED;
+import static com.squareup.sdk.pos.FlightRecorder.Event.RESOLVED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FlightRecorderTest {
+
+  @Test public void dumpsEventsOldestFirst() {
+    FlightRecorder recorder = new FlightRecorder(4);
+
+    recorder.record(RESOLVED, "com.squareup", 2);
+    recorder.record(CHARGE_INTENT_CREATED, "com.squareup", 1_00);
+    recorder.record(CHARGE_FAILED, ChargeRequest.ErrorCode.TRANSACTION_CANCELED, 0);
+
+    List<String> lines = dump(recorder);
+    assertThat(lines).hasSize(3);
+    assertThat(lines.get(0)).endsWith(" RESOLVED com.squareup 2");
+    assertThat(lines.get(1)).endsWith(" CHARGE_INTENT_CREATED com.squareup 100");
+    assertThat(lines.get(2)).endsWith(" CHARGE_FAILED TRANSACTION_CANCELED");
+  }
+
+  @Test public void keepsMostRecentEvents() {
+    FlightRecorder recorder = new FlightRecorder(4);
+
+    for (int i = 1; i <= 6; i++) {
+      recorder.record(CHARGE_INTENT_CREATED, "com.squareup", i);
+    }
+
+    List<String> lines = dump(recorder);
+    assertThat(lines).hasSize(4);
+    assertThat(lines.get(0)).endsWith(" 3");
+    assertThat(lines.get(3)).endsWith(" 6");
+  }
+
+  @Test public void emptyRecorderDumpsNothing() {
+    assertThat(dump(new FlightRecorder(4))).isEmpty();
+  }
+
+  @Test public void concurrentRecordingKeepsEventsWhole() throws Exception {
+    FlightRecorder recorder = new FlightRecorder(16);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          recorder.record(CHARGE_SUCCEEDED, "com.squareup", 7);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    List<String> lines = dump(recorder);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (String line : lines) {
+      assertThat(line).endsWith(" CHARGE_SUCCEEDED com.squareup 7");
+    }
+    assertThat(dump(recorder)).hasSize(16);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void capacityMustBePowerOfTwo() {
+    new FlightRecorder(100);
+  }
+
+  private static List<String> dump(FlightRecorder recorder) {
+    StringWriter out = new StringWriter();
+    recorder.dump(new PrintWriter(out));
+    List<String> lines = new ArrayList<>();
+    for (String line : out.toString().split("\n")) {
+      if (!line.isEmpty()) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import org.junit.Test;
+
+import static com.squareup.sdk.pos.PosMetrics.Timing.INTENT_BUILD;
+import static com.squareup.sdk.pos.PosMetrics.Timing.ROUND_TRIP;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Percentage.withPercentage;
+
+public class HistogramPosMetricsTest {
+
+  @Test public void emptyHistogramReportsZero() {
+    HistogramPosMetrics metrics = new HistogramPosMetrics();
+
+    assertThat(metrics.count(ROUND_TRIP)).isZero();
+    assertThat(metrics.percentileNanos(ROUND_TRIP, 99)).isZero();
+  }
+
+  @Test public void reportsPercentilesWithinBucketPrecision() {
+    HistogramPosMetrics metrics = new HistogramPosMetrics();
+    for (int i = 1; i <= 1000; i++) {
+      metrics.onTiming(ROUND_TRIP, i * 1_000_000L);
+    }
+
+    assertThat(metrics.count(ROUND_TRIP)).isEqualTo(1000);
+    assertThat(metrics.percentileNanos(ROUND_TRIP, 50))
+        .isCloseTo(500_000_000L, withPercentage(12.5));
+    assertThat(metrics.percentileNanos(ROUND_TRIP, 95))
+        .isCloseTo(950_000_000L, withPercentage(12.5));
+    assertThat(metrics.percentileNanos(ROUND_TRIP, 99))
+        .isCloseTo(990_000_000L, withPercentage(12.5));
+    assertThat(metrics.percentileNanos(ROUND_TRIP, 100)).isGreaterThanOrEqualTo(1_000_000_000L);
+  }
+
+  @Test public void timingsAreKeptApart() {
+    HistogramPosMetrics metrics = new HistogramPosMetrics();
+
+    metrics.onTiming(INTENT_BUILD, 5);
+
+    assertThat(metrics.count(INTENT_BUILD)).isEqualTo(1);
+    assertThat(metrics.count(ROUND_TRIP)).isZero();
+    assertThat(metrics.percentileNanos(INTENT_BUILD, 50)).isEqualTo(5);
+  }
+
+  @Test public void bucketsCoverEveryDuration() {
+    for (long value = 0; value >= 0 && value < Long.MAX_VALUE; value = value * 3 + 1) {
+      int bucket = HistogramPosMetrics.bucket(value);
+      assertThat(HistogramPosMetrics.highestValue(bucket)).isGreaterThanOrEqualTo(value);
+      if (bucket > 0) {
+        assertThat(HistogramPosMetrics.highestValue(bucket - 1)).isLessThan(value);
+      }
+    }
+    assertThat(HistogramPosMetrics.highestValue(HistogramPosMetrics.bucket(Long.MAX_VALUE)))
+        .isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test public void negativeDurationsCountAsZero() {
+    HistogramPosMetrics metrics = new HistogramPosMetrics();
+
+    metrics.onTiming(ROUND_TRIP, -1);
+
+    assertThat(metrics.percentileNanos(ROUND_TRIP, 100)).isZero();
+  }
+
+  @Test public void countsOutcomes() {
+    HistogramPosMetrics metrics = new HistogramPosMetrics();
+
+    metrics.onChargeSuccess();
+    metrics.onChargeError(ChargeRequest.ErrorCode.TRANSACTION_CANCELED);
+    metrics.onChargeError(ChargeRequest.ErrorCode.TRANSACTION_CANCELED);
+    metrics.onChargeError(null);
+
+    assertThat(metrics.successCount()).isEqualTo(1);
+    assertThat(metrics.errorCount(ChargeRequest.ErrorCode.TRANSACTION_CANCELED)).isEqualTo(2);
+    assertThat(metrics.errorCount(ChargeRequest.ErrorCode.NO_RESULT)).isZero();
+    assertThat(metrics.errorCount(null)).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void zeroPercentileThrows() {
+    new HistogramPosMetrics().percentileNanos(ROUND_TRIP, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void percentileAboveHundredThrows() {
+    new HistogramPosMetrics().percentileNanos(ROUND_TRIP, 100.1);
+  }
+}
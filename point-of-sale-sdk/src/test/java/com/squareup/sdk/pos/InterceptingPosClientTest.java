@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.Context;
+import android.content.Intent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.squareup.sdk.pos.ChargeRequest.ErrorCode.TRANSACTION_CANCELED;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class) //
+public class InterceptingPosClientTest {
+
+  @Mock PosClient delegate;
+  List<String> calls;
+  ChargeRequest request;
+
+  @Before public void setUp() {
+    initMocks(this);
+    calls = new ArrayList<>();
+    request = new ChargeRequest.Builder(1_00, CurrencyCode.USD).build();
+  }
+
+  @Test public void interceptorsRunInOrder() {
+    Intent intent = new Intent();
+    when(delegate.createChargeIntent(request)).thenReturn(intent);
+    PosClient client = intercept(new Recording("first"), new Recording("second"));
+
+    assertThat(client.createChargeIntent(request)).isSameAs(intent);
+
+    assertThat(calls).containsExactly("first", "second");
+  }
+
+  @Test public void interceptorRewritesRequest() {
+    ChargeRequest rewritten = request.newBuilder().note("Register 3").build();
+    PosClient client = intercept(new PosInterceptor() {
+      @Override public Intent interceptChargeIntent(ChargeIntentChain chain) {
+        return chain.proceed(chain.chargeRequest().newBuilder().note("Register 3").build());
+      }
+    });
+
+    client.createChargeIntent(request);
+
+    verify(delegate).createChargeIntent(rewritten);
+  }
+
+  @Test public void interceptorShortCircuits() {
+    Intent cached = new Intent();
+    PosClient client = intercept(new PosInterceptor() {
+      @Override public Intent interceptChargeIntent(ChargeIntentChain chain) {
+        return cached;
+      }
+    });
+
+    assertThat(client.createChargeIntent(request)).isSameAs(cached);
+    verify(delegate, never()).createChargeIntent(request);
+  }
+
+  @Test public void templateChargeKeepsTemplate() {
+    ChargeTemplate template = new ChargeTemplate(request);
+    List<ChargeRequest> seen = new ArrayList<>();
+    PosClient client = intercept(new PosInterceptor() {
+      @Override public Intent interceptChargeIntent(ChargeIntentChain chain) {
+        seen.add(chain.chargeRequest());
+        return chain.proceed(chain.chargeRequest());
+      }
+    });
+
+    client.createChargeIntent(template, 2_00, "metadata");
+
+    verify(delegate).createChargeIntent(template, 2_00, "metadata");
+    assertThat(seen).containsExactly(
+        request.newBuilder(2_00, CurrencyCode.USD).requestMetadata("metadata").build());
+  }
+
+  @Test public void rewrittenTemplateChargeUsesRequest() {
+    ChargeTemplate template = new ChargeTemplate(request);
+    PosClient client = intercept(new PosInterceptor() {
+      @Override public Intent interceptChargeIntent(ChargeIntentChain chain) {
+        return chain.proceed(chain.chargeRequest().newBuilder().note("Register 3").build());
+      }
+    });
+
+    client.createChargeIntent(template, 2_00, null);
+
+    verify(delegate).createChargeIntent(
+        request.newBuilder(2_00, CurrencyCode.USD).note("Register 3").build());
+  }
+
+  @Test public void resultsAreIntercepted() {
+    Intent data = new Intent();
+    ChargeRequest.Success success = new ChargeRequest.Success("client", "server", null);
+    ChargeRequest.Error error = new ChargeRequest.Error(TRANSACTION_CANCELED, "canceled", null);
+    when(delegate.parseChargeSuccess(data)).thenReturn(success);
+    when(delegate.parseChargeError(data)).thenReturn(error);
+    PosClient client = intercept(new Recording("first"), new Recording("second"));
+
+    assertThat(client.parseChargeSuccess(data)).isSameAs(success);
+    assertThat(client.parseChargeError(data)).isSameAs(error);
+
+    assertThat(calls).containsExactly("first success", "second success", "first error",
+        "second error");
+  }
+
+  @Test public void defaultMethodsProceed() {
+    Intent data = new Intent();
+    PosClient client = intercept(new PosInterceptor() {
+    });
+
+    client.createChargeIntent(request);
+    client.parseChargeSuccess(data);
+    client.parseChargeError(data);
+
+    verify(delegate).createChargeIntent(request);
+    verify(delegate).parseChargeSuccess(data);
+    verify(delegate).parseChargeError(data);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void negativeTemplateAmountThrows() {
+    intercept(new Recording("first")).createChargeIntent(new ChargeTemplate(request), -1, null);
+  }
+
+  @Test public void builderWithoutInterceptorsBuildsBareClient() {
+    Context context = mock(Context.class);
+    when(context.getApplicationContext()).thenReturn(context);
+
+    assertThat(new PosSdk.Builder(context, "clientId").build()).isInstanceOf(RealPosClient.class);
+    assertThat(new PosSdk.Builder(context, "clientId").addInterceptor(new Recording("first"))
+        .build()).isInstanceOf(InterceptingPosClient.class);
+  }
+
+  @Test(expected = NullPointerException.class) public void nullInterceptorThrows() {
+    Context context = mock(Context.class);
+    when(context.getApplicationContext()).thenReturn(context);
+    //noinspection ConstantConditions
+    new PosSdk.Builder(context, "clientId").addInterceptor(null);
+  }
+
+  private PosClient intercept(PosInterceptor... interceptors) {
+    return new InterceptingPosClient(delegate, Arrays.asList(interceptors));
+  }
+
+  final class Recording implements PosInterceptor {
+    private final String name;
+
+    Recording(String name) {
+      this.name = name;
+    }
+
+    @Override public Intent interceptChargeIntent(ChargeIntentChain chain) {
+      calls.add(name);
+      return chain.proceed(chain.chargeRequest());
+    }
+
+    @Override public ChargeRequest.Success interceptChargeSuccess(
+        ResultChain<ChargeRequest.Success> chain) {
+      calls.add(name + " success");
+      return chain.proceed(chain.data());
+    }
+
+    @Override public ChargeRequest.Error interceptChargeError(
+        ResultChain<ChargeRequest.Error> chain) {
+      calls.add(name + " error");
+      return chain.proceed(chain.data());
+    }
+  }
+}
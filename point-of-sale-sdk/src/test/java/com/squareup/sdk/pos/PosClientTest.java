@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.squareup.sdk.pos;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/** Tests the default methods that keep existing {@link PosClient} implementations compiling. */
+@RunWith(RobolectricTestRunner.class) //
+public class PosClientTest {
+
+  @Test public void defaultPrewarmChecksInstallation() {
+    PosClient client = mock(PosClient.class, CALLS_REAL_METHODS);
+
+    client.prewarm(Runnable::run);
+
+    verify(client).isPointOfSaleInstalled();
+  }
+
+  @Test public void defaultTemplateChargeBuildsRequest() {
+    PosClient client = mock(PosClient.class, CALLS_REAL_METHODS);
+    ChargeRequest request =
+        new ChargeRequest.Builder(1_00, CurrencyCode.USD).note("note").build();
+
+    client.createChargeIntent(new ChargeTemplate(request), 2_00, "metadata");
+
+    verify(client).createChargeIntent(
+        request.newBuilder(2_00, CurrencyCode.USD).requestMetadata("metadata").build());
+  }
+}
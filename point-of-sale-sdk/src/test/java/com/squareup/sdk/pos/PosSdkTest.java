@@ -40,6 +40,11 @@ public class PosSdkTest {
     PosSdk.createClient(mock(Context.class), null);
   }
 
+  @Test(expected = NullPointerException.class) public void nullMetricsThrows() {
+    //noinspection ConstantConditions
+    PosSdk.createClient(mock(Context.class), "clientId", null);
+  }
+
   @Test public void extractsApplicationContext() {
     Context context = mock(Context.class);
     when(context.getApplicationContext()).thenReturn(context);
@@ -17,25 +17,41 @@
 package com.squareup.sdk.pos;
 
 import android.content.ActivityNotFoundException;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.Signature;
+import android.content.pm.SigningInfo;
 import android.net.Uri;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+import org.robolectric.shadows.ShadowTrace;
 
+import static android.content.Intent.ACTION_PACKAGE_ADDED;
+import static android.content.Intent.ACTION_PACKAGE_REPLACED;
 import static android.content.Intent.ACTION_VIEW;
 import static android.content.Intent.FLAG_ACTIVITY_NEW_TASK;
+import static android.content.pm.PackageManager.CERT_INPUT_SHA256;
 import static com.squareup.sdk.pos.PosApi.EXTRA_API_VERSION;
 import static com.squareup.sdk.pos.PosApi.EXTRA_AUTO_RETURN_TIMEOUT_MS;
 import static com.squareup.sdk.pos.PosApi.EXTRA_CURRENCY_CODE;
@@ -49,14 +65,20 @@ import static com.squareup.sdk.pos.PosApi.EXTRA_TENDER_CARD;
 import static com.squareup.sdk.pos.PosApi.EXTRA_TENDER_TYPES;
 import static com.squareup.sdk.pos.PosApi.EXTRA_TOTAL_AMOUNT;
 import static com.squareup.sdk.pos.PosApi.INTENT_ACTION_CHARGE;
+import static com.squareup.sdk.pos.TestData.DIRECT_APK_SIGNATURE;
 import static com.squareup.sdk.pos.TestData.INVALID_SIGNATURE;
 import static com.squareup.sdk.pos.TestData.POINT_OF_SALE_SIGNATURE;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -155,6 +177,20 @@ public class RealPosClientTest {
     assertThat(client.isPointOfSaleInstalled()).isFalse();
   }
 
+  @Test public void directApkSignature() {
+    chargeActivities.clear();
+    installApp("com.squareup", 2, DIRECT_APK_SIGNATURE);
+
+    assertThat(client.isPointOfSaleInstalled()).isTrue();
+  }
+
+  @Test public void additionalInvalidSignature() {
+    chargeActivities.clear();
+    installApp("com.squareup", 2, POINT_OF_SALE_SIGNATURE, INVALID_SIGNATURE);
+
+    assertThat(client.isPointOfSaleInstalled()).isFalse();
+  }
+
   @Test public void multipleFlavorsInstalled() {
     chargeActivities.clear();
     installApp("com.squareup", 2, POINT_OF_SALE_SIGNATURE);
@@ -207,6 +243,108 @@ public class RealPosClientTest {
     assertThat(intent.hasExtra(EXTRA_AUTO_RETURN_TIMEOUT_MS)).isFalse();
   }
 
+  @Test public void intentPinnedToChargeActivity() {
+    Intent intent =
+        client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    assertThat(intent.getComponent()).isEqualTo(
+        new ComponentName("com.squareup", "com.squareup.ChargeActivity"));
+  }
+
+  @Test public void requestExtrasNotSharedBetweenIntents() {
+    ChargeRequest request = new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .customerId("customerId")
+        .enforceBusinessLocation("location")
+        .build();
+    client.createChargeIntent(request);
+
+    Intent intent =
+        client.createChargeIntent(new ChargeRequest.Builder(2_00, CurrencyCode.USD).build());
+
+    assertThat(intent.getIntExtra(EXTRA_TOTAL_AMOUNT, -1)).isEqualTo(2_00);
+    assertThat(intent.getStringExtra(EXTRA_POINT_OF_SALE_CLIENT_ID)).isEqualTo(CLIENT_ID);
+    assertThat(intent.hasExtra(EXTRA_CUSTOMER_ID)).isFalse();
+    assertThat(intent.hasExtra(EXTRA_LOCATION_ID)).isFalse();
+  }
+
+  @Test public void tenderTypesExtraNotSharedBetweenIntents() {
+    ChargeRequest request = new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .restrictTendersTo(ChargeRequest.TenderType.CARD)
+        .build();
+    Intent first = client.createChargeIntent(request);
+
+    first.getStringArrayListExtra(EXTRA_TENDER_TYPES).add("EXTRA");
+
+    Intent second = client.createChargeIntent(request);
+    assertThat(second.getStringArrayListExtra(EXTRA_TENDER_TYPES)).containsExactly(
+        EXTRA_TENDER_CARD);
+  }
+
+  @Test public void tenderTypesExtraNotSharedBetweenTemplateIntents() {
+    ChargeTemplate template = new ChargeTemplate(new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .restrictTendersTo(ChargeRequest.TenderType.CARD)
+        .build());
+    Intent first = client.createChargeIntent(template, 1_00, null);
+
+    first.getStringArrayListExtra(EXTRA_TENDER_TYPES).add("EXTRA");
+
+    Intent second = client.createChargeIntent(template, 1_00, null);
+    assertThat(second.getStringArrayListExtra(EXTRA_TENDER_TYPES)).containsExactly(
+        EXTRA_TENDER_CARD);
+  }
+
+  @Test public void intentCreatedFromTemplate() {
+    ChargeTemplate template = new ChargeTemplate(new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .restrictTendersTo(ChargeRequest.TenderType.CARD)
+        .autoReturn(4, SECONDS)
+        .enforceBusinessLocation("location")
+        .customerId("customerId")
+        .requestMetadata("template metadata")
+        .note("note")
+        .build());
+
+    Intent intent = client.createChargeIntent(template, 2_50, "metadata");
+
+    assertThat(intent.getIntExtra(EXTRA_TOTAL_AMOUNT, -1)).isEqualTo(2_50);
+    assertThat(intent.getStringExtra(EXTRA_REQUEST_METADATA)).isEqualTo("metadata");
+    assertThat(intent.getStringExtra(EXTRA_CURRENCY_CODE)).isEqualTo("USD");
+    assertThat(intent.getStringExtra(EXTRA_POINT_OF_SALE_CLIENT_ID)).isEqualTo(CLIENT_ID);
+    assertThat(intent.getStringExtra(EXTRA_NOTE)).isEqualTo("note");
+    assertThat(intent.getStringExtra(EXTRA_LOCATION_ID)).isEqualTo("location");
+    assertThat(intent.getStringExtra(EXTRA_CUSTOMER_ID)).isEqualTo("customerId");
+    assertThat(intent.getStringArrayListExtra(EXTRA_TENDER_TYPES)).containsExactly(
+        EXTRA_TENDER_CARD);
+    assertThat(intent.getLongExtra(EXTRA_AUTO_RETURN_TIMEOUT_MS, -1)).isEqualTo(4_000);
+    assertThat(intent.getComponent()).isEqualTo(
+        new ComponentName("com.squareup", "com.squareup.ChargeActivity"));
+  }
+
+  @Test public void templateIntentMatchesRequestIntent() {
+    ChargeRequest request = new ChargeRequest.Builder(1_00, CurrencyCode.USD)
+        .enforceBusinessLocation("location")
+        .requestMetadata("metadata")
+        .build();
+
+    Intent requestIntent = client.createChargeIntent(request);
+    Intent templateIntent =
+        client.createChargeIntent(new ChargeTemplate(request), 1_00, "metadata");
+
+    assertThat(templateIntent.filterEquals(requestIntent)).isTrue();
+    assertThat(templateIntent.getExtras().keySet())
+        .isEqualTo(requestIntent.getExtras().keySet());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void templateWithNegativeAmountThrows() {
+    ChargeTemplate template =
+        new ChargeTemplate(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    client.createChargeIntent(template, -1, null);
+  }
+
+  @Test(expected = NullPointerException.class) public void nullTemplateThrows() {
+    client.createChargeIntent((ChargeTemplate) null, 1_00, null);
+  }
+
   @Test public void pinsToHighestVersionNumber() {
     chargeActivities.clear();
     installApp("com.squareup", 2, POINT_OF_SALE_SIGNATURE);
@@ -244,21 +382,204 @@ public class RealPosClientTest {
     client.launchPointOfSale();
   }
 
-  private void installApp(String packageName, int versionCode, Signature signature) {
+  @Test public void cachesResolvedPointOfSale() {
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    client.createChargeIntent(new ChargeRequest.Builder(2_00, CurrencyCode.USD).build());
+
+    assertThat(client.isPointOfSaleInstalled()).isTrue();
+    verify(packageManager, times(1)).queryIntentActivities(any(), anyInt());
+  }
+
+  @Test public void prewarmResolvesPointOfSale() {
+    client.prewarm(Runnable::run);
+    verify(packageManager, times(1)).queryIntentActivities(any(), anyInt());
+
+    Intent intent =
+        client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    assertThat(intent.getPackage()).isEqualTo("com.squareup");
+    verify(packageManager, times(1)).queryIntentActivities(any(), anyInt());
+  }
+
+  @Test(expected = NullPointerException.class) public void prewarmWithNullExecutorThrows() {
+    //noinspection ConstantConditions
+    client.prewarm(null);
+  }
+
+  @Test public void packageChangeInvalidatesResolvedPointOfSale() {
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    installApp("com.squareup.beta", 3, POINT_OF_SALE_SIGNATURE);
+    sendPackageBroadcast(ACTION_PACKAGE_ADDED, "com.squareup.beta");
+
+    Intent intent =
+        client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    assertThat(intent.getPackage()).isEqualTo("com.squareup.beta");
+  }
+
+  @Test public void unrelatedPackageChangeKeepsResolvedPointOfSale() {
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    sendPackageBroadcast(ACTION_PACKAGE_REPLACED, "com.example.other");
+
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    verify(packageManager, times(1)).queryIntentActivities(any(), anyInt());
+  }
+
+  @Test public void reusesVerificationOfUnchangedPackage() {
+    SignatureVerifier verifier = spy(new LegacySignatureVerifier());
+    PointOfSaleResolver resolver = new PointOfSaleResolver(context, verifier);
+    client = new RealPosClient(context, CLIENT_ID, resolver);
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    resolver.invalidate();
+
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    verify(packageManager, times(2)).queryIntentActivities(any(), anyInt());
+    verify(verifier, times(1)).isSignedByPointOfSale(any(PackageInfo.class));
+  }
+
+  @Test public void clientsShareOneReceiver() {
+    new RealPosClient(context, CLIENT_ID);
+
+    verify(context, times(1)).registerReceiver(any(BroadcastReceiver.class),
+        any(IntentFilter.class));
+    assertThat(PointOfSaleResolver.shared(context)).isSameAs(PointOfSaleResolver.shared(context));
+  }
+
+  @Test public void replacedSharedResolverUnregistersReceiver() {
+    ArgumentCaptor<BroadcastReceiver> receiver = ArgumentCaptor.forClass(BroadcastReceiver.class);
+    verify(context).registerReceiver(receiver.capture(), any(IntentFilter.class));
+
+    PointOfSaleResolver.shared(mock(Context.class));
+
+    verify(context).unregisterReceiver(receiver.getValue());
+  }
+
+  @Test public void fetchesEachCandidateOnce() throws Exception {
+    chargeActivities.clear();
+    installApp("com.squareup", 2, POINT_OF_SALE_SIGNATURE);
+    installApp("com.squareup.beta", 3, POINT_OF_SALE_SIGNATURE);
+
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    verify(packageManager, times(1)).getPackageInfo(eq("com.squareup"), anyInt());
+    verify(packageManager, times(1)).getPackageInfo(eq("com.squareup.beta"), anyInt());
+  }
+
+  @Test(expected = ActivityNotFoundException.class)
+  public void reverifiesReplacedPackage() {
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    chargeActivities.clear();
+    installApp("com.squareup", 3, INVALID_SIGNATURE);
+    sendPackageBroadcast(ACTION_PACKAGE_REPLACED, "com.squareup");
+
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+  }
+
+  @Test public void reportsChargeIntentTimings() {
+    PosMetrics metrics = mock(PosMetrics.class);
+    client = new RealPosClient(context, CLIENT_ID, new PointOfSaleResolver(context), metrics);
+
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    verify(metrics, times(1)).onTiming(eq(PosMetrics.Timing.VERIFICATION), anyLong());
+    verify(metrics, times(2)).onTiming(eq(PosMetrics.Timing.RESOLUTION), anyLong());
+    verify(metrics, times(2)).onTiming(eq(PosMetrics.Timing.INTENT_BUILD), anyLong());
+  }
+
+  @Test public void reportsRoundTripAndOutcomes() {
+    PosMetrics metrics = mock(PosMetrics.class);
+    client = new RealPosClient(context, CLIENT_ID, new PointOfSaleResolver(context), metrics);
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    ShadowSystemClock.advanceBy(Duration.ofSeconds(5));
+
+    client.parseChargeSuccess(new Intent());
+    client.parseChargeError(new Intent().putExtra(PosApi.RESULT_ERROR_CODE,
+        ChargeRequest.ErrorCode.TRANSACTION_CANCELED.apiCode));
+
+    verify(metrics).onTiming(PosMetrics.Timing.ROUND_TRIP, SECONDS.toNanos(5));
+    verify(metrics).onChargeSuccess();
+    verify(metrics).onChargeError(ChargeRequest.ErrorCode.TRANSACTION_CANCELED);
+  }
+
+  @Test public void tracesChargeSections() {
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    assertThat(ShadowTrace.getPreviousSections()).contains(PosTrace.QUERY,
+        PosTrace.GET_PACKAGE_INFO + " com.squareup", PosTrace.VERIFY + " com.squareup",
+        PosTrace.CREATE_CHARGE_INTENT);
+    assertThat(ShadowTrace.getCurrentAsyncSections())
+        .extracting(ShadowTrace.AsyncTraceSection::getSectionName)
+        .containsExactly(PosTrace.CHARGE);
+
+    client.parseChargeSuccess(new Intent());
+
+    assertThat(ShadowTrace.getPreviousSections()).contains(PosTrace.PARSE_CHARGE_RESULT);
+    assertThat(ShadowTrace.getCurrentSections()).isEmpty();
+    assertThat(ShadowTrace.getCurrentAsyncSections()).isEmpty();
+    assertThat(ShadowTrace.getPreviousAsyncSections())
+        .extracting(ShadowTrace.AsyncTraceSection::getSectionName)
+        .containsExactly(PosTrace.CHARGE);
+  }
+
+  @Test public void nextChargeIntentEndsUnfinishedChargeSection() {
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+
+    assertThat(ShadowTrace.getCurrentAsyncSections()).hasSize(1);
+    assertThat(ShadowTrace.getPreviousAsyncSections()).hasSize(1);
+  }
+
+  @Test public void recordsChargeEvents() {
+    client.createChargeIntent(new ChargeRequest.Builder(1_00, CurrencyCode.USD).build());
+    client.parseChargeError(new Intent().putExtra(PosApi.RESULT_ERROR_CODE,
+        ChargeRequest.ErrorCode.TRANSACTION_CANCELED.apiCode));
+
+    StringWriter out = new StringWriter();
+    PosSdk.dumpRecentEvents(new PrintWriter(out));
+
+    assertThat(out.toString()).contains(" RESOLVED com.squareup 2\n",
+        " CHARGE_INTENT_CREATED com.squareup 100\n", " CHARGE_FAILED TRANSACTION_CANCELED\n");
+  }
+
+  private void sendPackageBroadcast(String action, String packageName) {
+    ArgumentCaptor<BroadcastReceiver> receiver = ArgumentCaptor.forClass(BroadcastReceiver.class);
+    verify(context, atLeastOnce()).registerReceiver(receiver.capture(), any(IntentFilter.class));
+    receiver.getValue().onReceive(context, new Intent(action, Uri.parse("package:" + packageName)));
+  }
+
+  private void installApp(String packageName, int versionCode, Signature... signatures) {
     ResolveInfo resolveInfo = new ResolveInfo();
     resolveInfo.activityInfo = new ActivityInfo();
     resolveInfo.activityInfo.packageName = packageName;
+    resolveInfo.activityInfo.name = packageName + ".ChargeActivity";
     chargeActivities.add(resolveInfo);
     PackageInfo packageInfo = new PackageInfo();
     packageInfo.versionCode = versionCode;
     packageInfo.packageName = packageName;
-    packageInfo.signatures = new Signature[1];
-    packageInfo.signatures[0] = signature;
+    packageInfo.signatures = signatures;
+    SigningInfo signingInfo = mock(SigningInfo.class);
+    when(signingInfo.hasMultipleSigners()).thenReturn(signatures.length > 1);
+    when(signingInfo.getApkContentsSigners()).thenReturn(signatures);
+    when(signingInfo.getSigningCertificateHistory()).thenReturn(signatures);
+    packageInfo.signingInfo = signingInfo;
     try {
       when(packageManager.getPackageInfo(eq(packageName), anyInt())).thenReturn(
           packageInfo);
     } catch (PackageManager.NameNotFoundException e) {
       throw new RuntimeException(e);
     }
+    // Like the platform, only match packages with a single signer.
+    when(packageManager.hasSigningCertificate(eq(packageName), any(), eq(CERT_INPUT_SHA256)))
+        .thenAnswer(invocation -> {
+          byte[] fingerprint = invocation.getArgument(1);
+          return signatures.length == 1 && Arrays.equals(fingerprint, sha256(signatures[0]));
+        });
+  }
+
+  private static byte[] sha256(Signature signature) throws NoSuchAlgorithmException {
+    return MessageDigest.getInstance("SHA-256").digest(signature.toByteArray());
   }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.sdk.pos;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+import android.content.pm.SigningInfo;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+
+import static android.content.pm.PackageManager.CERT_INPUT_SHA256;
+import static android.content.pm.PackageManager.GET_SIGNATURES;
+import static android.content.pm.PackageManager.GET_SIGNING_CERTIFICATES;
+import static com.squareup.sdk.pos.TestData.INVALID_SIGNATURE;
+import static com.squareup.sdk.pos.TestData.POINT_OF_SALE_SIGNATURE;
+import static com.squareup.sdk.pos.TestData.POINT_OF_SALE_SIGNATURE_BYTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@SuppressWarnings("deprecation") //
+@RunWith(RobolectricTestRunner.class) //
+public class SignatureVerifierTest {
+
+  private static final String PACKAGE_NAME = "com.squareup";
+
+  @Mock PackageManager packageManager;
+
+  @Before public void setUp() {
+    initMocks(this);
+  }
+
+  @Test public void legacyAcceptsPointOfSaleSignature() {
+    installApp(false, POINT_OF_SALE_SIGNATURE);
+
+    assertThat(fetchAndVerify(new LegacySignatureVerifier())).isTrue();
+  }
+
+  @Test public void legacyRejectsAdditionalInvalidSignature() {
+    installApp(false, POINT_OF_SALE_SIGNATURE, INVALID_SIGNATURE);
+
+    assertThat(fetchAndVerify(new LegacySignatureVerifier())).isFalse();
+  }
+
+  @Test public void legacyRejectsMissingSignatures() {
+    installApp(false);
+
+    assertThat(fetchAndVerify(new LegacySignatureVerifier())).isFalse();
+  }
+
+  @Test public void platformCheckSkipsFetchingCertificates() throws Exception {
+    installApp(false, POINT_OF_SALE_SIGNATURE);
+    when(packageManager.hasSigningCertificate(eq(PACKAGE_NAME),
+        argThat(fingerprint -> Arrays.equals(fingerprint, sha256(POINT_OF_SALE_SIGNATURE_BYTES))),
+        eq(CERT_INPUT_SHA256))).thenReturn(true);
+
+    SignatureVerifier verifier = new SigningCertificateVerifier(packageManager);
+    PackageInfo packageInfo =
+        packageManager.getPackageInfo(PACKAGE_NAME, verifier.packageInfoFlags());
+
+    assertThat(verifier.isSignedByPointOfSale(packageInfo)).isTrue();
+    verify(packageManager, never()).getPackageInfo(PACKAGE_NAME, GET_SIGNING_CERTIFICATES);
+  }
+
+  @Test public void signingCertificatesAcceptPointOfSaleSignature() {
+    installApp(false, POINT_OF_SALE_SIGNATURE);
+
+    assertThat(fetchAndVerify(new SigningCertificateVerifier(packageManager))).isTrue();
+  }
+
+  @Test public void signingCertificatesRejectInvalidSignature() {
+    installApp(false, INVALID_SIGNATURE);
+
+    assertThat(fetchAndVerify(new SigningCertificateVerifier(packageManager))).isFalse();
+  }
+
+  @Test public void signingCertificatesRejectAdditionalInvalidSigner() {
+    installApp(true, POINT_OF_SALE_SIGNATURE, INVALID_SIGNATURE);
+
+    assertThat(fetchAndVerify(new SigningCertificateVerifier(packageManager))).isFalse();
+  }
+
+  @Test public void signingCertificatesRejectMissingPackage() throws Exception {
+    installApp(false, POINT_OF_SALE_SIGNATURE);
+    PackageInfo packageInfo = packageManager.getPackageInfo(PACKAGE_NAME, 0);
+    when(packageManager.getPackageInfo(anyString(), anyInt()))
+        .thenThrow(new PackageManager.NameNotFoundException());
+
+    assertThat(new SigningCertificateVerifier(packageManager).isSignedByPointOfSale(packageInfo))
+        .isFalse();
+  }
+
+  @Test public void signingCertificatesAcceptRotationFromPointOfSaleSignature() {
+    installApp(false, POINT_OF_SALE_SIGNATURE, INVALID_SIGNATURE);
+
+    assertThat(fetchAndVerify(new SigningCertificateVerifier(packageManager))).isTrue();
+  }
+
+  /** Fetches the package the way {@link PointOfSaleResolver} does, then verifies it. */
+  private boolean fetchAndVerify(SignatureVerifier verifier) {
+    try {
+      PackageInfo packageInfo =
+          packageManager.getPackageInfo(PACKAGE_NAME, verifier.packageInfoFlags());
+      return verifier.isSignedByPointOfSale(packageInfo);
+    } catch (PackageManager.NameNotFoundException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private void installApp(boolean multipleSigners, Signature... signatures) {
+    try {
+      when(packageManager.getPackageInfo(eq(PACKAGE_NAME), anyInt())).thenAnswer(invocation -> {
+        Signature[] copies = new Signature[signatures.length];
+        for (int i = 0; i < signatures.length; i++) {
+          copies[i] = new Signature(signatures[i].toByteArray());
+        }
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = PACKAGE_NAME;
+        int flags = invocation.getArgument(1);
+        if ((flags & GET_SIGNATURES) != 0) {
+          packageInfo.signatures = copies;
+        }
+        if ((flags & GET_SIGNING_CERTIFICATES) != 0) {
+          SigningInfo signingInfo = mock(SigningInfo.class);
+          when(signingInfo.hasMultipleSigners()).thenReturn(multipleSigners);
+          when(signingInfo.getApkContentsSigners()).thenReturn(copies);
+          when(signingInfo.getSigningCertificateHistory()).thenReturn(copies);
+          packageInfo.signingInfo = signingInfo;
+        }
+        return packageInfo;
+      });
+    } catch (PackageManager.NameNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] sha256(byte[] bytes) throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(bytes);
+  }
+}
@@ -51,7 +51,7 @@ public final class TestData {
       -1, -39, 127, 11, -19
   };
 
-  public static final byte[] INVALID_SIGNATURE_BYTES = {
+  public static final byte[] DIRECT_APK_SIGNATURE_BYTES = {
       48, -126, 3, -117, 48, -126, 2, 115, -96, 3, 2, 1, 2, 2, 4, 118, 85, -50, 58, 48, 13, 6, 9,
       42, -122, 72, -122, -9, 13, 1, 1, 11, 5, 0, 48, 118, 49, 11, 48, 9, 6, 3, 85, 4, 6, 19, 2, 85,
       83, 49, 11, 48, 9, 6, 3, 85, 4, 8, 19, 2, 67, 65, 49, 22, 48, 20, 6, 3, 85, 4, 7, 19, 13, 83,
@@ -97,7 +97,42 @@ public final class TestData {
       -54, -60, 77, -60, 48, 93, 45
   };
 
+  /** A self-signed certificate that Point of Sale is never signed with. */
+  public static final byte[] INVALID_SIGNATURE_BYTES = {
+      48, -126, 2, 101, 48, -126, 1, -50, -96, 3, 2, 1, 2, 2, 9, 0, -7, 90, -3, 90, 12, -72, 73,
+      -52, 48, 13, 6, 9, 42, -122, 72, -122, -9, 13, 1, 1, 11, 5, 0, 48, 98, 49, 11, 48, 9, 6, 3,
+      85, 4, 6, 19, 2, 85, 83, 49, 11, 48, 9, 6, 3, 85, 4, 8, 19, 2, 67, 65, 49, 16, 48, 14, 6, 3,
+      85, 4, 7, 19, 7, 78, 111, 119, 104, 101, 114, 101, 49, 16, 48, 14, 6, 3, 85, 4, 10, 19, 7, 69,
+      120, 97, 109, 112, 108, 101, 49, 13, 48, 11, 6, 3, 85, 4, 11, 19, 4, 84, 101, 115, 116, 49,
+      19, 48, 17, 6, 3, 85, 4, 3, 19, 10, 78, 111, 116, 32, 83, 113, 117, 97, 114, 101, 48, 32, 23,
+      13, 50, 54, 49, 48, 49, 56, 48, 57, 50, 52, 53, 51, 90, 24, 15, 50, 49, 50, 54, 48, 57, 50,
+      52, 48, 57, 50, 52, 53, 51, 90, 48, 98, 49, 11, 48, 9, 6, 3, 85, 4, 6, 19, 2, 85, 83, 49, 11,
+      48, 9, 6, 3, 85, 4, 8, 19, 2, 67, 65, 49, 16, 48, 14, 6, 3, 85, 4, 7, 19, 7, 78, 111, 119,
+      104, 101, 114, 101, 49, 16, 48, 14, 6, 3, 85, 4, 10, 19, 7, 69, 120, 97, 109, 112, 108, 101,
+      49, 13, 48, 11, 6, 3, 85, 4, 11, 19, 4, 84, 101, 115, 116, 49, 19, 48, 17, 6, 3, 85, 4, 3, 19,
+      10, 78, 111, 116, 32, 83, 113, 117, 97, 114, 101, 48, -127, -97, 48, 13, 6, 9, 42, -122, 72,
+      -122, -9, 13, 1, 1, 1, 5, 0, 3, -127, -115, 0, 48, -127, -119, 2, -127, -127, 0, -128, 102,
+      40, 80, -24, 123, -18, -88, 55, 57, -74, 80, 38, 104, 108, -24, 122, 92, -46, 98, 74, 109, 94,
+      -62, -58, 101, 22, 107, -128, -112, -55, -102, -70, -60, -35, -121, 13, -69, -80, -100, -97,
+      -90, 48, 41, 24, -38, -94, 27, 110, -91, 7, -96, -87, -83, -24, -31, -94, -111, -38, 31, 48,
+      39, 50, 57, -45, -24, 107, 123, -3, 55, -69, 106, 78, 34, 118, -50, -113, 103, 16, 95, 100,
+      70, 4, -18, 113, 84, 89, -117, 29, 54, 86, -74, 13, 42, -116, 114, 73, 117, -100, 76, -40,
+      -58, 65, 71, 11, 96, 114, 23, -39, 2, -123, 47, -120, 22, -30, 68, -29, -95, -12, 1, -39, -11,
+      -15, -27, 53, -42, 91, 97, 2, 3, 1, 0, 1, -93, 33, 48, 31, 48, 29, 6, 3, 85, 29, 14, 4, 22, 4,
+      20, 16, 3, -91, -38, -122, -119, 34, -65, -93, 68, -37, -84, -52, 52, -128, -60, -71, 72, -96,
+      50, 48, 13, 6, 9, 42, -122, 72, -122, -9, 13, 1, 1, 11, 5, 0, 3, -127, -127, 0, 100, 34, 0,
+      -121, -17, -59, -44, 0, 3, -55, -96, 6, 24, 122, 6, 126, -65, -92, -125, 27, 14, 11, -101,
+      -67, 60, 51, 84, -66, -74, -111, -121, -54, 25, -41, 89, -64, 42, 118, 98, 22, -17, -102, -79,
+      105, -46, 61, -22, 73, 60, 112, 113, -77, 23, 79, -37, 56, 26, 44, 89, 51, -126, 89, 5, -91,
+      -4, -88, 80, 84, -31, -73, 8, 105, -99, -110, 96, 1, -1, -73, -85, 112, -11, 19, -98, 92, -59,
+      15, -50, 4, 90, -44, -80, 24, 70, -9, 48, 25, -124, 9, -68, 110, -88, 34, -111, 73, -32, 122,
+      104, 97, -5, -121, 8, -16, 32, -102, 34, -86, 10, 36, 107, -89, 107, 18, -42, 95, 116, -128,
+      44, -53
+  };
+
   public static final Signature POINT_OF_SALE_SIGNATURE = new Signature(POINT_OF_SALE_SIGNATURE_BYTES);
 
+  public static final Signature DIRECT_APK_SIGNATURE = new Signature(DIRECT_APK_SIGNATURE_BYTES);
+
   public static final Signature INVALID_SIGNATURE = new Signature(INVALID_SIGNATURE_BYTES);
 }